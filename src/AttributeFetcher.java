@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * 批量读取文件属性
+ * <p>
+ * Demo11里的Files::isDirectory、File::isHidden以及可读、可执行的判断，每一个都是一次单独的stat系统调用，
+ * 而且是串行的，目录放在慢存储上时会很慢。这里每个条目只用FileEntry.read()读一次属性
+ * (Unix上读"unix"视图里的uid、gid、权限位和基本属性，否则读BasicFileAttributes)，多个条目的读取并发执行，
+ * 并发数有上限，然后把属性放在FileEntry里交给过滤器，过滤器不会再重复系统调用。
+ * <p>
+ * 项目的语言级别是Java 8，没有虚拟线程，这里用固定大小的守护线程池来限制并发度。
+ */
+public class AttributeFetcher implements AutoCloseable {
+    /**
+     * 每个任务至少处理这么多条目，避免小目录上任务调度的开销比stat本身还大
+     */
+    private static final int MIN_BATCH = 16;
+
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    /**
+     * 在调用线程上串行读取
+     */
+    public AttributeFetcher() {
+        parallelism = 1;
+        executor = null;
+    }
+
+    public AttributeFetcher(final int theParallelism) {
+        if (theParallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + theParallelism);
+        }
+        parallelism = theParallelism;
+        final AtomicInteger count = new AtomicInteger();
+        executor = theParallelism == 1 ? null : Executors.newFixedThreadPool(theParallelism, runnable -> {
+            final Thread thread = new Thread(runnable, "attribute-fetcher-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 列出目录并读取每个条目的属性，再用过滤器筛选
+     */
+    public List<FileEntry> list(final Path dir, final Predicate<FileEntry> filter) throws IOException {
+        return list(dir).stream()
+                .filter(filter)
+                .collect(Collectors.toList());
+    }
+
+    public List<FileEntry> list(final Path dir) throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            stream.forEach(paths::add);
+        }
+        return fetch(paths);
+    }
+
+    /**
+     * 读取一组路径的属性，返回的顺序和传入的一致；读属性时已经不存在的文件会被跳过
+     */
+    public List<FileEntry> fetch(final List<Path> paths) throws IOException {
+        if (paths.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (executor == null || paths.size() <= MIN_BATCH) {
+            return fetchRange(paths, 0, paths.size());
+        }
+        final int batch = Math.max(MIN_BATCH, (paths.size() + parallelism - 1) / parallelism);
+        final List<CompletableFuture<List<FileEntry>>> futures = new ArrayList<>();
+        for (int from = 0; from < paths.size(); from += batch) {
+            final int start = from;
+            final int end = Math.min(paths.size(), from + batch);
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return fetchRange(paths, start, end);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        final List<FileEntry> entries = new ArrayList<>(paths.size());
+        try {
+            for (CompletableFuture<List<FileEntry>> future : futures) {
+                entries.addAll(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        return entries;
+    }
+
+    private static List<FileEntry> fetchRange(final List<Path> paths, final int from, final int to)
+            throws IOException {
+        final List<FileEntry> entries = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            final Path path = paths.get(i);
+            try {
+                entries.add(FileEntry.read(path));
+            } catch (NoSuchFileException e) {
+                //列目录和取属性之间文件被删掉了，直接跳过
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
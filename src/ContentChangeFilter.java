@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 过滤掉内容没有变化的MODIFY事件
+ * <p>
+ * 在Demo12里touch一下src/test.txt也会收到修改事件，哪怕字节一点没变，下游就会白白地重新加载一遍。
+ * 这里给每个路径记一份(大小，mtime，内容哈希)：
+ * 1、大小和mtime都没变，直接认为没变，不用读文件(记录时文件刚被改过的话不走这条捷径，
+ * 因为mtime精度以内的第二次写入看不出来)；
+ * 2、有一个变了才重新计算哈希(ContentHash，大文件走内存映射)，哈希也一样的话只更新记录，事件不往下传。
+ * <p>
+ * 第一次见到的文件没有可比较的记录，它的MODIFY总是会传下去；可以先用track()把关心的文件登记上。
+ * 放在监控器和订阅方之间使用：new RecursiveWatcher(root, 200, MILLISECONDS, new ContentChangeFilter(listener))。
+ */
+public class ContentChangeFilter implements Consumer<List<FileEvent>> {
+    private static final long RACY_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+    private final Consumer<List<FileEvent>> downstream;
+    private final Map<Path, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+
+    public ContentChangeFilter(final Consumer<List<FileEvent>> theDownstream) {
+        downstream = theDownstream;
+    }
+
+    /**
+     * 记下文件当前的内容，之后内容没变的MODIFY事件都会被过滤掉
+     */
+    public void track(final Path file) throws IOException {
+        final Path key = file.toAbsolutePath().normalize();
+        fingerprints.put(key, Fingerprint.of(key, Files.readAttributes(key, BasicFileAttributes.class)));
+    }
+
+    @Override
+    public void accept(final List<FileEvent> events) {
+        final List<FileEvent> changed = new ArrayList<>(events.size());
+        for (FileEvent event : events) {
+            if (isChange(event)) {
+                changed.add(event);
+            }
+        }
+        if (!changed.isEmpty()) {
+            downstream.accept(changed);
+        }
+    }
+
+    private boolean isChange(final FileEvent event) {
+        final Path path = event.getPath();
+        switch (event.getKind()) {
+            case DELETE:
+                fingerprints.remove(path);
+                return true;
+            case CREATE:
+            case MODIFY:
+                return refresh(path);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * 更新路径的记录，返回内容是不是真的变了；读不了的文件一律当作变了，让下游自己处理
+     */
+    private boolean refresh(final Path path) {
+        try {
+            final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return true;
+            }
+            final Fingerprint previous = fingerprints.get(path);
+            if (previous != null && !previous.racy && previous.size == attrs.size()
+                    && previous.mtime == attrs.lastModifiedTime().toMillis()) {
+                return false;
+            }
+            final Fingerprint current = Fingerprint.of(path, attrs);
+            fingerprints.put(path, current);
+            return previous == null || previous.size != current.size || previous.hash != current.hash;
+        } catch (NoSuchFileException e) {
+            //事件交付的时候文件已经没了，后面会有它的DELETE
+            fingerprints.remove(path);
+            return false;
+        } catch (IOException e) {
+            fingerprints.remove(path);
+            return true;
+        }
+    }
+
+    private static final class Fingerprint {
+        private final long size;
+        private final long mtime;
+        private final long hash;
+        private final boolean racy;
+
+        private Fingerprint(final long theSize, final long theMtime, final long theHash) {
+            size = theSize;
+            mtime = theMtime;
+            hash = theHash;
+            racy = System.currentTimeMillis() - theMtime < RACY_WINDOW_MILLIS;
+        }
+
+        private static Fingerprint of(final Path path, final BasicFileAttributes attrs) throws IOException {
+            return new Fingerprint(attrs.size(), attrs.lastModifiedTime().toMillis(), ContentHash.of(path));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 文件内容的64位哈希，非加密用途，只用来判断内容有没有变
+ * <p>
+ * 每次处理8个字节：乘法加循环移位混合，最后用MurmurHash3的fmix收尾。
+ * 小文件直接读进堆内存；大文件用FileChannel.map()分段映射，不经过一次额外的拷贝。
+ */
+public final class ContentHash {
+    /**
+     * 超过这个大小就用内存映射，小文件映射的开销比直接read还大
+     */
+    private static final long MAP_THRESHOLD = 1 << 20;
+    /**
+     * 每次映射的窗口大小，必须是8的倍数，保证只有最后一段才有不满8字节的尾巴
+     */
+    private static final long MAP_WINDOW = 64L << 20;
+    private static final long P1 = 0x9E3779B97F4A7C15L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+
+    private ContentHash() {
+    }
+
+    public static long of(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return of(channel);
+        }
+    }
+
+    public static long of(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        long h = P1 ^ size;
+        if (size < MAP_THRESHOLD) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                //一直读到满
+            }
+            buffer.flip();
+            h = mix(h, buffer);
+        } else {
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                final long length = Math.min(MAP_WINDOW, size - position);
+                h = mix(h, channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+            }
+        }
+        return finish(h ^ size);
+    }
+
+    private static long mix(long h, final ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.remaining() >= Long.BYTES) {
+            h = Long.rotateLeft(h ^ buffer.getLong() * P1, 31) * P2;
+        }
+        if (buffer.hasRemaining()) {
+            long tail = 0;
+            for (int shift = 0; buffer.hasRemaining(); shift += 8) {
+                tail |= (buffer.get() & 0xFFL) << shift;
+            }
+            h = Long.rotateLeft(h ^ tail * P1, 31) * P2;
+        }
+        return h;
+    }
+
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
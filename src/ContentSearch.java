@@ -0,0 +1,368 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 并行的多文件内容搜索(类似grep -r)
+ * <p>
+ * 把Demo11里按条件列出文件和Demo05里可复用的startsWith谓词结合起来：
+ * 先用文件过滤器(Predicate&lt;FileEntry&gt;)选出要搜的文件，再用行谓词(Predicate&lt;String&gt;)在这些文件里并发地查找。
+ * <p>
+ * 1、同时打开的文件数不超过构造时给的上限——每个工作线程同一时间只读一个文件；
+ * 2、同一个文件里的结果按行号顺序交付，每攒够一批就交出去，不会把一个大文件的结果全部堆在内存里，不同文件的批次之间按完成的先后；
+ * 3、search()返回的流是边搜边出结果的，关闭流或者不再消费时其余的搜索会停下来，行谓词抛出的异常会在消费方重新抛出；
+ * 4、findAny()找到一个就全部停止，filesWithMatches()每个文件找到一个就不再往下读，count()只计数不创建结果对象。
+ * <p>
+ * 文件按UTF-8读取，无法解码的字节会被替换掉，不会中断搜索。读不了的文件跳过，
+ * 跳过的个数和最近一次的原因用getSkippedCount()、getLastFailure()查看。
+ */
+public class ContentSearch implements AutoCloseable {
+    /**
+     * 一条匹配结果
+     */
+    public static final class Match {
+        private final Path path;
+        private final long lineNumber;
+        private final String line;
+
+        private Match(final Path thePath, final long theLineNumber, final String theLine) {
+            path = thePath;
+            lineNumber = theLineNumber;
+            line = theLine;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * 从1开始
+         */
+        public long getLineNumber() {
+            return lineNumber;
+        }
+
+        public String getLine() {
+            return line;
+        }
+
+        public String toString() {
+            return String.format("%s:%d:%s", path, lineNumber, line);
+        }
+    }
+
+    /**
+     * search()交给消费方的一批结果，last表示这个文件搜完了(或者出错了)
+     */
+    private static final class Batch {
+        private final List<Match> matches;
+        private final boolean last;
+        private final RuntimeException failure;
+
+        private Batch(final List<Match> theMatches, final boolean theLast, final RuntimeException theFailure) {
+            matches = theMatches;
+            last = theLast;
+            failure = theFailure;
+        }
+    }
+
+    /**
+     * 处理一个文件，reader已经打开，返回null表示这个文件没有结果
+     */
+    @FunctionalInterface
+    private interface FileTask<R> {
+        R search(Path file, BufferedReader reader, AtomicBoolean stopped) throws IOException;
+    }
+
+    /**
+     * search()每批最多交付的结果数
+     */
+    private static final int BATCH_SIZE = 256;
+
+    private final int maxOpenFiles;
+    private final ExecutorService executor;
+    private final AtomicLong skipped = new AtomicLong();
+    private volatile IOException lastFailure;
+
+    public ContentSearch(final int theMaxOpenFiles) {
+        if (theMaxOpenFiles <= 0) {
+            throw new IllegalArgumentException("maxOpenFiles must be positive: " + theMaxOpenFiles);
+        }
+        maxOpenFiles = theMaxOpenFiles;
+        final AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(theMaxOpenFiles, runnable -> {
+            final Thread thread = new Thread(runnable, "content-search-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 递归搜索dir下满足fileFilter的文件，返回所有匹配的行。用完要关闭流
+     */
+    public Stream<Match> search(final Path dir, final Predicate<FileEntry> fileFilter,
+                                final Predicate<String> linePredicate) throws IOException {
+        final List<Path> files = listFiles(dir, fileFilter);
+        final AtomicBoolean stopped = new AtomicBoolean();
+        //结果队列有界，消费得慢时工作线程会等着，不会把所有结果都堆在内存里
+        final BlockingQueue<Batch> results = new ArrayBlockingQueue<>(maxOpenFiles * 2);
+        final List<Future<?>> futures = new ArrayList<>(files.size());
+        for (Path file : files) {
+            futures.add(executor.submit(() -> {
+                List<Match> rest = null;
+                RuntimeException failure = null;
+                try {
+                    rest = read(file, stopped, (path, reader, stop) -> {
+                        List<Match> found = new ArrayList<>();
+                        long lineNumber = 0;
+                        String line;
+                        while (!stop.get() && (line = reader.readLine()) != null) {
+                            lineNumber++;
+                            if (linePredicate.test(line)) {
+                                found.add(new Match(path, lineNumber, line));
+                                if (found.size() == BATCH_SIZE) {
+                                    put(results, new Batch(found, false, null), stop);
+                                    found = new ArrayList<>();
+                                }
+                            }
+                        }
+                        return found;
+                    });
+                } catch (RuntimeException e) {
+                    failure = e;
+                } finally {
+                    //没有结果或者出错的文件也要放一个最后的批次进去，消费方靠它来数完成了多少个文件
+                    put(results, new Batch(rest == null ? Collections.<Match>emptyList() : rest, true, failure),
+                            stopped);
+                }
+                return null;
+            }));
+        }
+        final Iterator<Match> iterator = new Iterator<Match>() {
+            private int remainingFiles = files.size();
+            private Iterator<Match> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (remainingFiles == 0 || stopped.get()) {
+                        return false;
+                    }
+                    final Batch batch;
+                    try {
+                        batch = results.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        stopped.set(true);
+                        return false;
+                    }
+                    if (batch.failure != null) {
+                        //和runAll()一样，谓词自己抛出的异常交给调用方
+                        stopped.set(true);
+                        throw new IllegalStateException("Search failed", batch.failure);
+                    }
+                    if (batch.last) {
+                        remainingFiles--;
+                    }
+                    current = batch.matches.iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public Match next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    stopped.set(true);
+                    futures.forEach(future -> future.cancel(false));
+                });
+    }
+
+    /**
+     * 找到任意一个匹配就停止所有的搜索
+     */
+    public Optional<Match> findAny(final Path dir, final Predicate<FileEntry> fileFilter,
+                                  final Predicate<String> linePredicate) throws IOException {
+        final List<Match> found = runAll(listFiles(dir, fileFilter), (path, reader, stopped) -> {
+            long lineNumber = 0;
+            String line;
+            while (!stopped.get() && (line = reader.readLine()) != null) {
+                lineNumber++;
+                if (linePredicate.test(line)) {
+                    stopped.set(true);
+                    return new Match(path, lineNumber, line);
+                }
+            }
+            return null;
+        });
+        return found.stream().findFirst();
+    }
+
+    /**
+     * 有匹配行的文件(类似grep -l)，每个文件找到第一行就不再往下读，结果按路径排序
+     */
+    public List<Path> filesWithMatches(final Path dir, final Predicate<FileEntry> fileFilter,
+                                       final Predicate<String> linePredicate) throws IOException {
+        final List<Path> files = runAll(listFiles(dir, fileFilter), (path, reader, stopped) -> {
+            String line;
+            while (!stopped.get() && (line = reader.readLine()) != null) {
+                if (linePredicate.test(line)) {
+                    return path;
+                }
+            }
+            return null;
+        });
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * 每个文件的匹配行数(类似grep -c)，只计数，不创建Match对象，没有匹配的文件不出现在结果里
+     */
+    public Map<Path, Long> count(final Path dir, final Predicate<FileEntry> fileFilter,
+                                 final Predicate<String> linePredicate) throws IOException {
+        final Map<Path, Long> counts = new TreeMap<>();
+        runAll(listFiles(dir, fileFilter), (path, reader, stopped) -> {
+            long count = 0;
+            String line;
+            while (!stopped.get() && (line = reader.readLine()) != null) {
+                if (linePredicate.test(line)) {
+                    count++;
+                }
+            }
+            return count == 0 ? null : new AbstractMap.SimpleImmutableEntry<>(path, count);
+        }).forEach(entry -> counts.put(entry.getKey(), entry.getValue()));
+        return counts;
+    }
+
+    private <R> List<R> runAll(final List<Path> files, final FileTask<R> task) {
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final List<Future<R>> futures = new ArrayList<>(files.size());
+        for (Path file : files) {
+            futures.add(executor.submit(() -> read(file, stopped, task)));
+        }
+        final List<R> results = new ArrayList<>();
+        try {
+            for (Future<R> future : futures) {
+                final R result = future.get();
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped.set(true);
+            throw new IllegalStateException("Search interrupted", e);
+        } catch (ExecutionException e) {
+            //只可能是谓词自己抛出的异常
+            stopped.set(true);
+            throw new IllegalStateException("Search failed", e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * 打开并处理一个文件。读不了的文件(比如列出来之后又被删掉了)跳过，不影响其它文件的搜索
+     */
+    private <R> R read(final Path file, final AtomicBoolean stopped, final FileTask<R> task) {
+        if (stopped.get()) {
+            return null;
+        }
+        //InputStreamReader遇到无法解码的字节会替换掉，而Files.newBufferedReader()会直接抛异常
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+            return task.search(file, reader, stopped);
+        } catch (IOException e) {
+            skipped.incrementAndGet();
+            lastFailure = e;
+            return null;
+        }
+    }
+
+    /**
+     * 因为读不了而跳过的文件数，包括这个对象上所有的搜索
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * 最近一次跳过文件的原因，从来没跳过时为null
+     */
+    public IOException getLastFailure() {
+        return lastFailure;
+    }
+
+    private static void put(final BlockingQueue<Batch> results, final Batch batch, final AtomicBoolean stopped) {
+        //消费方不再读取时不能一直阻塞在这里
+        try {
+            while (!stopped.get() && !results.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                //继续等
+            }
+        } catch (InterruptedException e) {
+            //只有close()会中断工作线程，这次搜索已经没有人消费了
+            Thread.currentThread().interrupt();
+            stopped.set(true);
+        }
+    }
+
+    private static List<Path> listFiles(final Path dir, final Predicate<FileEntry> fileFilter) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && fileFilter.test(new FileEntry(file, attrs))) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
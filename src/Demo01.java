@@ -40,5 +40,15 @@ public class Demo01 {
                 .map(price -> price.multiply(BigDecimal.valueOf(0.9)))//转化为折扣价
                 .reduce(BigDecimal.ZERO, BigDecimal::add);//累加
         System.out.println("Total of discounted prices: " + total);
+
+        //想知道每一步花了多少时间、过滤掉了多少元素，可以用StreamProfiler包装每一步的lambda，
+        //运行时加上-Dfp.profile=true才会统计，否则传进去的lambda原样返回，没有额外开销。
+        final StreamProfiler profiler = StreamProfiler.of("discount");
+        final BigDecimal profiledTotal = prices.stream()
+                .filter(profiler.filter("over20", price -> price.compareTo(BigDecimal.valueOf(20)) > 0))
+                .map(profiler.map("discount", price -> price.multiply(BigDecimal.valueOf(0.9))))
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        System.out.println("Total of discounted prices: " + profiledTotal);
+        profiler.printSummary();
     }
 }
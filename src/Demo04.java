@@ -1,6 +1,8 @@
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -95,5 +97,16 @@ public class Demo04 {
                         .filter(startWithN)
                         .count();
 
+        //需求:哪些人同时在多个列表里、某个人在哪些列表里
+        //每次都用List.contains()去查是线性的，列表多了、名字多了就很慢，可以先建一个索引
+        final Map<String, List<String>> lists = new LinkedHashMap<>();
+        lists.put("friends", myfriends);
+        lists.put("editors", editors);
+        lists.put("comrades", comrades);
+        final MembershipIndex index = new MembershipIndex(lists, false);
+        System.out.println("Friends who are also editors: " + index.intersection("friends", "editors"));
+        System.out.println("Brian is in: " + index.listsOf("Brian"));
+        System.out.println("In more than one list: " + index.inAtLeast(2));
+        System.out.println("Not in any list: " + index.notInAny(Arrays.asList("Brian", "Zoe", "Ken")));
     }
 }
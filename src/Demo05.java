@@ -62,6 +62,22 @@ public class Demo05 {
                 .filter(startsWithLetter.apply("N")).count();
         final long countFriendsStartB3 = friends.stream()
                 .filter(startsWithLetter.apply("B")).count();
+
+        //方法3--缓存工厂的结果
+        /**
+         * 上面两种方法每次调用都会新建一个Predicate。如果构造的代价很高(比如编译正则表达式)，
+         * 而且总是用同样的参数反复调用，可以用Memoizer把工厂函数包一层，同样的参数直接返回上次构造好的结果。
+         */
+        final Memoizer<String, Predicate<String>> cachedStartsWith =
+                new Memoizer<>(Demo05::checkIfStartWith, 64);
+        final long countFriendsStartN4 = friends.stream()
+                .filter(cachedStartsWith.apply("N")).count();
+        final long countFriendsStartB4 = friends.stream()
+                .filter(cachedStartsWith.apply("B")).count();
+        //同样的参数再来一次，直接命中缓存
+        final long countFriendsStartN5 = friends.stream()
+                .filter(cachedStartsWith.apply("N")).count();
+        System.out.println(cachedStartsWith);
     }
 
     /**
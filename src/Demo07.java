@@ -1,7 +1,11 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Java函数式编程(七)：MapReduce
@@ -10,7 +14,7 @@ import java.util.stream.Collectors;
  * @date 2015/12/7 9:09
  */
 public class Demo07 {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         /**
          * 前言:
          * 现在为止我们已经介绍了几个操作集合的新技巧了：查找匹配元素，查找单个元素，集合转化。这些操作有一个共同点，
@@ -91,6 +95,20 @@ public class Demo07 {
                 .map(String::toUpperCase)
                 .collect(Collectors.joining(", ")));
 
+        /**
+         * 4、对大文件做MapReduce
+         * 同样的map/filter/reduce也可以用在按行组织的文件上。文件很大时，MappedLineReader把文件映射到内存，
+         * 按换行符切分给并行流，filter直接在字节上判断，通过了才解码成String。
+         */
+        final byte[] startsWithJ = "j".getBytes(StandardCharsets.UTF_8);
+        try (Stream<MappedLineReader.Line> lines = MappedLineReader.lines(Paths.get("src", "test.txt"), true)) {
+            System.out.println("Total number of characters in lines starting with j: " + lines
+                    .filter(line -> line.startsWith(startsWithJ))
+                    .map(MappedLineReader.Line::toString)
+                    .mapToInt(String::length)
+                    .sum());
+        }
+
         /**
          * 小结：
          * 集合在编程中十分常见，有了lambda表达式后，Java的集合操作变得更加简单容易了。
@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.function.BinaryOperator;
 import java.util.stream.Collectors;
@@ -9,7 +12,7 @@ import java.util.stream.Collectors;
  * @date 2015/12/7 10:34
  */
 public class Demo10 {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         /**
          * 前言：
          *
@@ -110,6 +113,22 @@ public class Demo10 {
          * 在每个分组内，它使用maxBy()方法，从所有元素中递推出最年长的那位。由于组合了许多操作，这个语法看起来有点臃肿，
          * 不过整个读起来是这样的：按名字首字母进行分组，然后递推出分组中最年长的那位。
          */
+
+        //数据量大的时候，每次启动都重新构造列表太慢，可以存成快照，下次启动直接映射进来
+        final SnapshotStore.Schema<Student> schema =
+                SnapshotStore.Schema.of(Student::getName, Student::getAge, Student::new);
+        final Path snapshot = Files.createTempFile("students", ".snap");
+        SnapshotStore.write(snapshot, schema, people);
+        try (SnapshotStore<Student> store = SnapshotStore.open(snapshot, schema)) {
+            //快照之后的修改记在日志里，下次打开时重放
+            store.add(new Student("Nate", 22));
+            System.out.println("Student older than 20 from snapshot: " + store.stream()
+                    .filter(stu -> stu.getAge() > 20)
+                    .collect(Collectors.toList()));
+        } finally {
+            Files.deleteIfExists(snapshot);
+            Files.deleteIfExists(snapshot.resolveSibling(snapshot.getFileName() + ".log"));
+        }
     }
 }
 
@@ -3,6 +3,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.stream.Stream;
 
 /**
  * Java函数式编程(十一)：遍历目录
@@ -79,6 +80,38 @@ public class Demo11 {
          */
         new File(".").listFiles(File::isHidden);
 
+        /**
+         * 3、缓存目录列表
+         * 上面每列一次目录都要重新访问一次文件系统。如果同一个目录要反复地列，可以用DirectoryListingCache把结果缓存起来，
+         * 条目里带着列目录时取好的属性，过滤器直接在缓存上执行。只要目录的mtime没变，再次查询只需要stat一次目录本身。
+         */
+        final DirectoryListingCache listingCache = new DirectoryListingCache(128);
+        listingCache.list(Paths.get("src"), entry -> entry.getFileName().endsWith(".txt"))
+                .forEach(System.out::println);
+        listingCache.list(Paths.get("."), FileEntry::isDirectory)
+                .forEach(System.out::println);
+        listingCache.list(Paths.get("."), FileEntry::isHidden)
+                .forEach(System.out::println);
+
+        /**
+         * 如果还要按可读、可执行等属性过滤，每个判断都去调用一次File的方法就是一次单独的系统调用。
+         * AttributeFetcher每个条目只读一次属性，多个条目并发地读，过滤器直接用读好的属性。
+         */
+        try (AttributeFetcher fetcher = new AttributeFetcher(8)) {
+            fetcher.list(Paths.get("."), entry -> entry.isDirectory() && entry.isExecutable())
+                    .forEach(System.out::println);
+        }
+
+        /**
+         * 4、在列出的文件里搜索内容
+         * 列出文件的过滤器和Demo05里的startsWith谓词可以组合起来，用ContentSearch在多个文件里并发地查找匹配的行。
+         */
+        try (ContentSearch search = new ContentSearch(4);
+             Stream<ContentSearch.Match> matches = search.search(Paths.get("src"),
+                     entry -> entry.getFileName().endsWith(".txt"), Demo05.checkIfStartWith("j"))) {
+            matches.forEach(System.out::println);
+        }
+
         /**
          * 小结：
          *
@@ -3,6 +3,7 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -39,6 +40,12 @@ public class Demo12 {
          * JDK中的flatMap()方法也可以很好的处理空文件；它会把一个空引用作为一个空集合合并到流里。来看下flatMap()方法的使用。
          */
         betterWay();
+        /**
+         * betterWay()会把所有的File对象都收集到列表里，最后却只用到了数量。目录很大的时候，
+         * 可以用FileTreeStream惰性地展开，每个条目只列一次；只要数量的话，count()连第二层的File对象都不用创建。
+         * 如果需要一直知道数量和列表，就不要每次都重新扫描了：FileIndex扫描一次之后靠监控事件增量更新。
+         */
+        lazyWay();
 
         /**
          * 2、监控文件修改
@@ -71,7 +78,17 @@ public class Demo12 {
          * 这里可以看到，Java 7和Java 8的特性同时出场了。我们把pollEvents()返回的集合转化成了一个Java 8的Stream，
          * 然后使用它的内部迭代器来打印出每个文件的详细的更新信息。
          * 我们来运行下这段代码，然后将src目录下的test.txt文件修改一下，看下这个程序是否能察觉这个更新。
+         *
+         * 这里只poll了一次，也只监控了src这一层。需要长期监控整个目录树的话，用RecursiveWatcher：
+         * 它会自动注册新建的子目录，处理OVERFLOW，并把编辑器保存时的一连串事件合并成一批再交付。
+         */
+
+        /**
+         * 3、热加载配置
+         * 监控配置文件一般不是为了打印文件名，而是要在它变化时重新加载。ReloadableConfig在单独的线程上解析文件，
+         * 成功后整个换掉快照，读配置的地方直接get()，不会被阻塞。ContentChangeFilter会过滤掉内容没变的修改事件。
          */
+        reloadConfig();
     }
 
     /**
@@ -100,11 +117,48 @@ public class Demo12 {
      */
     public static void betterWay() {
         List<File> files = Stream.of(new File(".").listFiles())
-                .flatMap(file -> file.listFiles() == null ?
-                        Stream.of(file) : Stream.of(file.listFiles()))
+                .flatMap(file -> {
+                    //listFiles()只调用一次，不要为了判空再调一次
+                    final File[] children = file.listFiles();
+                    return children == null ? Stream.of(file) : Stream.of(children);
+                })
                 .collect(Collectors.toList());
         System.out.println("Count: " + files.size());
     }
+
+    /**
+     * 惰性展开，并行遍历
+     */
+    public static void lazyWay() {
+        System.out.println("Count: " + FileTreeStream.count(new File(".")));
+        FileTreeStream.flatten(new File("."), true)
+                .filter(file -> file.getName().endsWith(".txt"))
+                .forEachOrdered(System.out::println);
+    }
+
+    /**
+     * 把src/test.txt当作配置文件，在它变化时重新加载
+     */
+    public static void reloadConfig() throws IOException, InterruptedException {
+        try (ReloadableConfig<List<String>> config = new ReloadableConfig<>(Paths.get("src", "test.txt"),
+                file -> Collections.unmodifiableList(Files.readAllLines(file)),
+                lines -> !lines.isEmpty()).load()) {
+            final ContentChangeFilter changeFilter = new ContentChangeFilter(config);
+            changeFilter.track(Paths.get("src", "test.txt"));
+            try (FileWatcher watcher = new RecursiveWatcher(Paths.get("src"), 200, TimeUnit.MILLISECONDS, changeFilter)) {
+                watcher.start();
+                System.out.println("Reload src/test.txt on any change within next 1 minute...");
+                TimeUnit.MINUTES.sleep(1);
+            }
+            System.out.println(String.format("Reloaded %d times (last took %d us), %d failures, current: %s",
+                    config.getReloadCount(), config.getLastReloadTime(TimeUnit.MICROSECONDS),
+                    config.getFailureCount(), config.get()));
+            if (config.getLastFailure() != null) {
+                System.out.println("Last failure: " + config.getLastFailure());
+            }
+        }
+    }
+
     /**
      * 我们先是获取了当前目录的子文件流，然后调用了它的flatMap()方法。然后将一个lambda表达式传给这个方法，
      * 这个表达式会返回指定文件的子文件的流。flatMap()方法返回的的是当前目录所有子目录下的文件的集合。
@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * 目录列表缓存
+ * <p>
+ * Demo11里同一个目录用了三种方式去列，每一次都要重新访问文件系统。这里按目录缓存列表结果，
+ * 条目带着预先取好的基本属性(FileEntry)，过滤器直接在缓存的条目上执行。
+ * <p>
+ * 失效策略：
+ * 1、每次查询只stat一次目录本身，目录的mtime没变就直接用缓存；
+ * 2、有WatchService的话，可以在收到事件时调用invalidate()立即失效；
+ * 3、缓存的目录数有上限，超过后按LRU淘汰。
+ * <p>
+ * 注意：目录的mtime只反映条目的增删改名，文件内容被修改时目录mtime不会变，
+ * 所以缓存里的size、lastModifiedTime是列目录那一刻的值。
+ */
+public class DirectoryListingCache {
+    /**
+     * 文件系统mtime的精度不一定到纳秒，在这个时间窗口内被修改过的目录，即使mtime相同也不能相信缓存
+     */
+    private static final long RACY_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+    private final Map<Path, Listing> listings;
+    private final AttributeFetcher fetcher;
+
+    public DirectoryListingCache(final int maxDirectories) {
+        this(maxDirectories, new AttributeFetcher());
+    }
+
+    /**
+     * 用指定的AttributeFetcher读取条目属性，目录很大或者在慢存储上时可以让它并发读取
+     */
+    public DirectoryListingCache(final int maxDirectories, final AttributeFetcher theFetcher) {
+        if (maxDirectories <= 0) {
+            throw new IllegalArgumentException("maxDirectories must be positive: " + maxDirectories);
+        }
+        fetcher = theFetcher;
+        //accessOrder为true时LinkedHashMap就是一个LRU
+        listings = new LinkedHashMap<Path, Listing>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Path, Listing> eldest) {
+                return size() > maxDirectories;
+            }
+        };
+    }
+
+    /**
+     * 列出目录下的所有条目
+     */
+    public List<FileEntry> list(final Path dir) throws IOException {
+        final Path key = dir.toAbsolutePath().normalize();
+        final FileTime mtime = Files.getLastModifiedTime(key);
+        Listing listing;
+        synchronized (listings) {
+            listing = listings.get(key);
+        }
+        if (listing != null && listing.isValid(mtime)) {
+            return listing.entries;
+        }
+        listing = load(key, mtime);
+        synchronized (listings) {
+            listings.put(key, listing);
+        }
+        return listing.entries;
+    }
+
+    /**
+     * 列出目录下满足条件的条目，过滤在缓存的条目上进行，不会再访问文件系统
+     */
+    public List<FileEntry> list(final Path dir, final Predicate<FileEntry> filter) throws IOException {
+        return list(dir).stream()
+                .filter(filter)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 让某个目录的缓存失效，一般在WatchService报告该目录有变化时调用
+     */
+    public void invalidate(final Path dir) {
+        synchronized (listings) {
+            listings.remove(dir.toAbsolutePath().normalize());
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (listings) {
+            listings.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (listings) {
+            return listings.size();
+        }
+    }
+
+    private Listing load(final Path dir, final FileTime mtime) throws IOException {
+        final List<FileEntry> entries = fetcher.list(dir);
+        //目录在最近一个精度窗口内被修改过，下次查询时要重新列一次
+        final boolean racy = System.currentTimeMillis() - mtime.toMillis() < RACY_WINDOW_MILLIS;
+        return new Listing(Collections.unmodifiableList(entries), mtime, racy);
+    }
+
+    private static final class Listing {
+        private final List<FileEntry> entries;
+        private final FileTime mtime;
+        private final boolean racy;
+
+        private Listing(final List<FileEntry> theEntries, final FileTime theMtime, final boolean isRacy) {
+            entries = theEntries;
+            mtime = theMtime;
+            racy = isRacy;
+        }
+
+        /**
+         * 列目录时目录刚被改过的话，同一个mtime精度内的后续修改看不出来，这种列表只用一次
+         */
+        private boolean isValid(final FileTime current) {
+            return !racy && mtime.equals(current);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 目录中的一个条目：路径加上列目录时预先取好的基本属性
+ * <p>
+ * 过滤器直接读这里的属性，不用再为每个文件单独去stat一次。
+ * 在支持POSIX的文件系统上属性就是PosixFileAttributes，可读、可执行也能直接从权限位判断。
+ * 用read()读出来的条目带有数字形式的uid、gid和权限位，判断可读、可执行时和进程的uid、gid直接比较；
+ * PosixFileAttributes.owner()每次都要通过getpwuid()把uid解析成用户名(可能要读/etc/passwd甚至查LDAP)，这里不用它。
+ */
+public final class FileEntry {
+    /**
+     * 一次stat就能读到的属性，不包括需要解析用户名、组名的owner和group
+     */
+    private static final String UNIX_ATTRIBUTES = "unix:uid,gid,mode,size,lastModifiedTime,lastAccessTime,"
+            + "creationTime,isRegularFile,isDirectory,isSymbolicLink,isOther,fileKey";
+
+    private final Path path;
+    private final BasicFileAttributes attributes;
+
+    public FileEntry(final Path thePath, final BasicFileAttributes theAttributes) {
+        path = thePath;
+        attributes = theAttributes;
+    }
+
+    /**
+     * 用一次系统调用读取path的属性。支持"unix"视图的文件系统上带有uid、gid和权限位，否则只有基本属性
+     */
+    public static FileEntry read(final Path path) throws IOException {
+        if (path.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+            return new FileEntry(path, new UnixAttributes(path, Files.readAttributes(path, UNIX_ATTRIBUTES)));
+        }
+        return new FileEntry(path, Files.readAttributes(path, BasicFileAttributes.class));
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public BasicFileAttributes getAttributes() {
+        return attributes;
+    }
+
+    public String getFileName() {
+        return path.getFileName().toString();
+    }
+
+    public boolean isDirectory() {
+        return attributes.isDirectory();
+    }
+
+    public boolean isRegularFile() {
+        return attributes.isRegularFile();
+    }
+
+    /**
+     * 和Unix上的Files.isHidden()判断方式一样：以"."开头的就是隐藏文件，不需要系统调用
+     */
+    public boolean isHidden() {
+        return getFileName().startsWith(".");
+    }
+
+    /**
+     * 不是POSIX文件系统时返回null
+     */
+    public PosixFileAttributes getPosixAttributes() {
+        return attributes instanceof PosixFileAttributes ? (PosixFileAttributes) attributes : null;
+    }
+
+    /**
+     * 按权限位估算是否可读，不考虑ACL和root用户；非POSIX文件系统上一律认为可读
+     */
+    public boolean isReadable() {
+        if (attributes instanceof UnixAttributes && !CurrentUser.KNOWN) {
+            return Files.isReadable(path);
+        }
+        return hasPermission(PosixFilePermission.OWNER_READ,
+                PosixFilePermission.GROUP_READ, PosixFilePermission.OTHERS_READ);
+    }
+
+    /**
+     * 按权限位估算是否可执行，不考虑ACL和root用户；非POSIX文件系统上只有目录认为可执行
+     */
+    public boolean isExecutable() {
+        if (getPosixAttributes() == null) {
+            return isDirectory();
+        }
+        if (attributes instanceof UnixAttributes && !CurrentUser.KNOWN) {
+            return Files.isExecutable(path);
+        }
+        return hasPermission(PosixFilePermission.OWNER_EXECUTE,
+                PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.OTHERS_EXECUTE);
+    }
+
+    private boolean hasPermission(final PosixFilePermission owner,
+                                  final PosixFilePermission group, final PosixFilePermission others) {
+        final PosixFileAttributes posix = getPosixAttributes();
+        if (posix == null) {
+            return true;
+        }
+        if (!(posix instanceof UnixAttributes)) {
+            //别的地方构造的PosixFileAttributes没有uid，只能比较用户名
+            if (posix.owner().getName().equals(System.getProperty("user.name"))) {
+                return posix.permissions().contains(owner);
+            }
+            return posix.permissions().contains(group) || posix.permissions().contains(others);
+        }
+        //文件属于当前用户就只看owner位，属于当前用户所在的组就只看group位，否则看others位
+        final UnixAttributes unix = (UnixAttributes) posix;
+        final Set<PosixFilePermission> permissions = unix.permissions;
+        if (unix.uid == CurrentUser.UID) {
+            return permissions.contains(owner);
+        }
+        if (CurrentUser.isMember(unix.gid)) {
+            return permissions.contains(group);
+        }
+        return permissions.contains(others);
+    }
+
+    public long size() {
+        return attributes.size();
+    }
+
+    public String toString() {
+        return path.toString();
+    }
+
+    /**
+     * 进程的uid和所属的组，只在第一次用到时读一次
+     */
+    private static final class CurrentUser {
+        /**
+         * 没拿到uid、gid时为false，这时退回Files.isReadable()/isExecutable()
+         */
+        private static final boolean KNOWN;
+        private static final long UID;
+        private static final long GID;
+        private static final long[] GROUPS;
+
+        static {
+            boolean known = false;
+            long uid = -1;
+            long gid = -1;
+            long[] groups = new long[0];
+            //UnixSystem只有Unix上的JDK才有，反射加载，编译时不依赖它
+            try {
+                final Class<?> type = Class.forName("com.sun.security.auth.module.UnixSystem");
+                final Object system = type.getConstructor().newInstance();
+                uid = (Long) type.getMethod("getUid").invoke(system);
+                gid = (Long) type.getMethod("getGid").invoke(system);
+                final long[] supplementary = (long[]) type.getMethod("getGroups").invoke(system);
+                if (supplementary != null) {
+                    groups = supplementary;
+                }
+                known = true;
+            } catch (ReflectiveOperationException | LinkageError | SecurityException e) {
+                //拿不到就按KNOWN=false处理
+            }
+            KNOWN = known;
+            UID = uid;
+            GID = gid;
+            GROUPS = groups;
+        }
+
+        private static boolean isMember(final long gid) {
+            if (gid == GID) {
+                return true;
+            }
+            for (long group : GROUPS) {
+                if (group == gid) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 从"unix"视图的属性构造的PosixFileAttributes，权限位直接从mode换算；
+     * owner()和group()要解析名字，只在真正调用时才去读
+     */
+    private static final class UnixAttributes implements PosixFileAttributes {
+        private static final PosixFilePermission[] PERMISSIONS = {
+                PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+                PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+                PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ
+        };
+
+        private final Path path;
+        private final Map<String, Object> values;
+        private final long uid;
+        private final long gid;
+        private final Set<PosixFilePermission> permissions;
+
+        private UnixAttributes(final Path thePath, final Map<String, Object> theValues) {
+            path = thePath;
+            values = theValues;
+            uid = ((Number) theValues.get("uid")).longValue() & 0xFFFFFFFFL;
+            gid = ((Number) theValues.get("gid")).longValue() & 0xFFFFFFFFL;
+            final int mode = (Integer) theValues.get("mode");
+            permissions = EnumSet.noneOf(PosixFilePermission.class);
+            for (int i = 0; i < PERMISSIONS.length; i++) {
+                if ((mode & (1 << i)) != 0) {
+                    permissions.add(PERMISSIONS[i]);
+                }
+            }
+        }
+
+        @Override
+        public UserPrincipal owner() {
+            try {
+                return Files.getOwner(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public GroupPrincipal group() {
+            try {
+                return Files.readAttributes(path, PosixFileAttributes.class).group();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Set<PosixFilePermission> permissions() {
+            return EnumSet.copyOf(permissions);
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return (FileTime) values.get("lastModifiedTime");
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return (FileTime) values.get("lastAccessTime");
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return (FileTime) values.get("creationTime");
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return (Boolean) values.get("isRegularFile");
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return (Boolean) values.get("isDirectory");
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return (Boolean) values.get("isSymbolicLink");
+        }
+
+        @Override
+        public boolean isOther() {
+            return (Boolean) values.get("isOther");
+        }
+
+        @Override
+        public long size() {
+            return (Long) values.get("size");
+        }
+
+        @Override
+        public Object fileKey() {
+            return values.get("fileKey");
+        }
+    }
+}
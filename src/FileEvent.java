@@ -0,0 +1,66 @@
+import java.nio.file.Path;
+
+/**
+ * 文件变化事件
+ * <p>
+ * 比WatchEvent简单：路径是完整的(不是相对于注册目录的)，事件类型只有四种。
+ * OVERFLOW表示这个目录的事件丢了，路径是目录本身，订阅方需要自己重新扫描这个目录。
+ */
+public final class FileEvent {
+    public enum Kind {
+        CREATE, MODIFY, DELETE, OVERFLOW
+    }
+
+    private final Kind kind;
+    private final Path path;
+
+    public FileEvent(final Kind theKind, final Path thePath) {
+        kind = theKind;
+        path = thePath;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * 合并同一个路径上先后发生的两个事件，返回null表示两个事件互相抵消了
+     * <p>
+     * 新建后修改还是新建，新建后删除就当没发生过，删除后又新建算修改，修改后删除算删除。
+     */
+    public static Kind coalesce(final Kind previous, final Kind next) {
+        if (previous == null || previous == next || next == Kind.OVERFLOW) {
+            return next;
+        }
+        switch (previous) {
+            case CREATE:
+                return next == Kind.DELETE ? null : Kind.CREATE;
+            case DELETE:
+                return Kind.MODIFY;
+            case OVERFLOW:
+                return Kind.OVERFLOW;
+            default:
+                return next;
+        }
+    }
+
+    public boolean equals(final Object other) {
+        if (!(other instanceof FileEvent)) {
+            return false;
+        }
+        final FileEvent event = (FileEvent) other;
+        return kind == event.kind && path.equals(event.path);
+    }
+
+    public int hashCode() {
+        return 31 * kind.hashCode() + path.hashCode();
+    }
+
+    public String toString() {
+        return String.format("%s %s", kind, path);
+    }
+}
@@ -0,0 +1,344 @@
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 带背压的文件事件发布者
+ * <p>
+ * Demo12的监控循环直接在pollEvents().stream().forEach(...)里打印事件，消费方慢了的话没有任何东西能拦住它，
+ * 事件风暴时内存也会被撑爆。这里把事件按订阅方的需求(request(n))推送出去，每个订阅方有自己的有界缓冲区和需求计数，
+ * 缓冲区满了按OverflowPolicy处理：
+ * DROP_OLDEST 丢掉最老的事件；
+ * COALESCE 同一个路径的事件在缓冲区里合并成一个(见FileEvent.coalesce())，不同路径太多装不下时再丢最老的；
+ * BLOCK 阻塞发布线程直到有空位，把背压一直传到监控器的交付线程上。
+ * <p>
+ * 项目的语言级别是Java 8，还没有java.util.concurrent.Flow，这里的Publisher、Subscriber和Subscription
+ * 和Flow里的方法签名完全一样(事件类型固定为FileEvent)，升级之后换成Flow的接口即可。
+ * 放在监控器后面使用：new RecursiveWatcher(root, 200, MILLISECONDS, publisher)。
+ */
+public class FileEventPublisher implements Consumer<List<FileEvent>>, AutoCloseable {
+    public enum OverflowPolicy {
+        DROP_OLDEST, COALESCE, BLOCK
+    }
+
+    public interface Publisher {
+        void subscribe(Subscriber subscriber);
+    }
+
+    public interface Subscriber {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(FileEvent event);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+        void request(long n);
+
+        void cancel();
+    }
+
+    private final int bufferSize;
+    private final OverflowPolicy policy;
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+    private final List<EventSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+
+    public FileEventPublisher(final int theBufferSize, final OverflowPolicy thePolicy) {
+        this(theBufferSize, thePolicy, null);
+    }
+
+    /**
+     * @param theExecutor 用来给订阅方推送事件，为null时使用自己的守护线程池
+     */
+    public FileEventPublisher(final int theBufferSize, final OverflowPolicy thePolicy, final Executor theExecutor) {
+        if (theBufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive: " + theBufferSize);
+        }
+        bufferSize = theBufferSize;
+        policy = thePolicy;
+        if (theExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            ownExecutor = Executors.newCachedThreadPool(runnable -> {
+                final Thread thread = new Thread(runnable, "event-publisher-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor = ownExecutor;
+        } else {
+            ownExecutor = null;
+            executor = theExecutor;
+        }
+    }
+
+    public void subscribe(final Subscriber subscriber) {
+        final EventSubscription subscription = new EventSubscription(subscriber);
+        //onSubscribe()也由drain()发出，所以一定在其它信号之前，也不会和它们并发
+        if (closed) {
+            subscription.complete();
+            return;
+        }
+        subscriptions.add(subscription);
+        subscription.signal();
+    }
+
+    /**
+     * 类不能实现自己内部声明的接口，需要Publisher的地方用这个
+     */
+    public Publisher asPublisher() {
+        return this::subscribe;
+    }
+
+    /**
+     * 把一批事件分发给每一个订阅方，BLOCK策略下可能会阻塞
+     */
+    @Override
+    public void accept(final List<FileEvent> events) {
+        if (closed) {
+            return;
+        }
+        for (EventSubscription subscription : subscriptions) {
+            for (FileEvent event : events) {
+                subscription.offer(event);
+            }
+            subscription.signal();
+        }
+    }
+
+    /**
+     * 所有订阅方因为缓冲区满而丢掉的事件数，COALESCE合并掉的不算
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * 不再接收新事件，每个订阅方把缓冲区里的事件收完之后会收到onComplete()。
+     * 自己的线程池要等所有订阅方都结束(完成或取消)之后才关闭，否则订阅方之后的request(n)就没有线程可用了
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (EventSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+        shutdownIfIdle();
+    }
+
+    private void terminated(final EventSubscription subscription) {
+        subscriptions.remove(subscription);
+        shutdownIfIdle();
+    }
+
+    private void shutdownIfIdle() {
+        if (closed && ownExecutor != null && subscriptions.isEmpty()) {
+            ownExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 外部传入的线程池可能已经被关掉了，这时直接在调用线程上执行
+     */
+    private void execute(final Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    private final class EventSubscription implements Subscription {
+        private final Subscriber subscriber;
+        //DROP_OLDEST和BLOCK用队列，COALESCE按路径合并
+        private final ArrayDeque<FileEvent> queue = new ArrayDeque<>();
+        private final Map<Path, FileEvent.Kind> coalesced = new LinkedHashMap<>();
+        //保证同一时间只有一个线程在给这个订阅方推送，事件不会乱序
+        private final AtomicInteger wip = new AtomicInteger();
+        private long demand;
+        private Throwable error;
+        private boolean completing;
+        private boolean cancelled;
+        //只在drain()里访问
+        private boolean subscribed;
+
+        private EventSubscription(final Subscriber theSubscriber) {
+            subscriber = theSubscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    //和onNext一样通过drain()发出，不会和正在进行的推送并发
+                    if (!cancelled && error == null) {
+                        error = new IllegalArgumentException("request must be positive: " + n);
+                    }
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                queue.clear();
+                coalesced.clear();
+                notifyAll();
+            }
+            terminated(this);
+        }
+
+        private synchronized void offer(final FileEvent event) {
+            if (cancelled) {
+                return;
+            }
+            switch (policy) {
+                case COALESCE:
+                    final FileEvent.Kind previous = coalesced.get(event.getPath());
+                    if (previous == null && coalesced.size() >= bufferSize) {
+                        final Iterator<Path> oldest = coalesced.keySet().iterator();
+                        oldest.next();
+                        oldest.remove();
+                        dropped.incrementAndGet();
+                    }
+                    final FileEvent.Kind merged = FileEvent.coalesce(previous, event.getKind());
+                    if (merged == null) {
+                        coalesced.remove(event.getPath());
+                    } else {
+                        coalesced.put(event.getPath(), merged);
+                    }
+                    break;
+                case BLOCK:
+                    while (queue.size() >= bufferSize && !cancelled) {
+                        //先把已有的需求推送出去，否则订阅方收不到事件也就不会腾出空位
+                        signal();
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    if (!cancelled) {
+                        queue.offer(event);
+                    }
+                    break;
+                default:
+                    if (queue.size() >= bufferSize) {
+                        queue.poll();
+                        dropped.incrementAndGet();
+                    }
+                    queue.offer(event);
+                    break;
+            }
+        }
+
+        private synchronized FileEvent poll() {
+            if (cancelled || error != null || demand == 0) {
+                return null;
+            }
+            FileEvent event = queue.poll();
+            if (event == null && !coalesced.isEmpty()) {
+                final Iterator<Map.Entry<Path, FileEvent.Kind>> oldest = coalesced.entrySet().iterator();
+                final Map.Entry<Path, FileEvent.Kind> entry = oldest.next();
+                oldest.remove();
+                event = new FileEvent(entry.getValue(), entry.getKey());
+            }
+            if (event != null) {
+                if (demand != Long.MAX_VALUE) {
+                    demand--;
+                }
+                notifyAll();
+            }
+            return event;
+        }
+
+        /**
+         * 取出request(n)留下的错误，同时取消订阅
+         */
+        private synchronized Throwable takeError() {
+            final Throwable failure = error;
+            if (failure != null) {
+                error = null;
+                cancelled = true;
+                queue.clear();
+                coalesced.clear();
+                notifyAll();
+            }
+            return failure;
+        }
+
+        private synchronized boolean isDone() {
+            return completing && !cancelled && queue.isEmpty() && coalesced.isEmpty();
+        }
+
+        private void complete() {
+            synchronized (this) {
+                completing = true;
+            }
+            signal();
+        }
+
+        private void signal() {
+            if (wip.getAndIncrement() == 0) {
+                execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                try {
+                    if (!subscribed) {
+                        subscribed = true;
+                        subscriber.onSubscribe(this);
+                    }
+                    FileEvent event;
+                    while ((event = poll()) != null) {
+                        subscriber.onNext(event);
+                    }
+                } catch (RuntimeException e) {
+                    //订阅方不应该在onSubscribe、onNext里抛异常，抛了就取消订阅，再把异常交还给它
+                    cancel();
+                    subscriber.onError(e);
+                    return;
+                }
+                final Throwable failure = takeError();
+                if (failure != null) {
+                    terminated(this);
+                    subscriber.onError(failure);
+                    return;
+                }
+                if (isDone()) {
+                    terminated(this);
+                    subscriber.onComplete();
+                    return;
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 增量维护的内存文件索引
+ * <p>
+ * Demo12的listTheHardWay()和betterWay()每次调用都要把整个列表重建一遍再数数量。
+ * 这里只在开始时完整扫描一次，之后靠监控器交付的FileEvent增量更新：
+ * 数量是O(1)，按目录列出和按后缀查找是O(k)，k是结果的个数。
+ * 收到OVERFLOW时只把那个目录下的子树删掉重扫一遍，不会重扫整棵树；重扫失败的次数和原因用getFailureCount()、getLastFailure()查看。
+ * <p>
+ * 用watch()创建的索引自己带着监控器：先开始监控再扫描，扫描期间交付的事件等扫描完再应用，
+ * 中间发生的创建、删除不会漏掉。更新只在监控器的交付线程上进行，查询可以在任意线程上并发执行。
+ */
+public class FileIndex implements Consumer<List<FileEvent>>, Closeable {
+    private final Path root;
+    //目录 -> 它的直接子条目；只有目录才会作为key出现
+    private final Map<Path, Set<Path>> children = new ConcurrentHashMap<>();
+    //后缀(比如".txt") -> 条目
+    private final Map<String, Set<Path>> bySuffix = new ConcurrentHashMap<>();
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private FileWatcher watcher;
+    private volatile Exception lastFailure;
+
+    private FileIndex(final Path theRoot) {
+        root = theRoot;
+    }
+
+    /**
+     * 只扫描一次，不跟踪之后的变化。要一直保持最新用watch()
+     */
+    public static FileIndex build(final Path root) throws IOException {
+        final FileIndex index = new FileIndex(root.toAbsolutePath().normalize());
+        index.scan(index.root);
+        return index;
+    }
+
+    /**
+     * 开始监控root并建立索引，之后靠监控事件增量更新，不用了要close()
+     */
+    public static FileIndex watch(final Path root, final long debounce, final TimeUnit unit) throws IOException {
+        final FileIndex index = new FileIndex(root.toAbsolutePath().normalize());
+        final RecursiveWatcher recursiveWatcher = new RecursiveWatcher(index.root, debounce, unit, index);
+        //先开始监控再扫描，扫描时持有锁，这期间的事件在监控器的交付线程上等着，扫描完再应用；
+        //add和remove都是幂等的，扫描已经看到的变化再应用一次没有影响
+        synchronized (index) {
+            recursiveWatcher.start();
+            index.watcher = recursiveWatcher;
+            try {
+                index.scan(index.root);
+            } catch (IOException e) {
+                recursiveWatcher.close();
+                throw e;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * root下所有条目(文件和目录，不含root本身)的个数
+     */
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * 收到OVERFLOW后重扫目录失败的次数
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * 最近一次失败的原因，从来没失败过时为null
+     */
+    public Exception getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * 目录的直接子条目，目录不在索引里时返回空列表
+     */
+    public List<Path> list(final Path dir) {
+        final Set<Path> entries = children.get(dir.toAbsolutePath().normalize());
+        return entries == null ? Collections.emptyList() : new ArrayList<>(entries);
+    }
+
+    /**
+     * 按后缀查找，suffix要带上点号，比如".txt"
+     */
+    public List<Path> withSuffix(final String suffix) {
+        final Set<Path> entries = bySuffix.get(suffix);
+        return entries == null ? Collections.emptyList() : new ArrayList<>(entries);
+    }
+
+    public boolean contains(final Path path) {
+        final Path parent = path.toAbsolutePath().normalize().getParent();
+        final Set<Path> entries = parent == null ? null : children.get(parent);
+        return entries != null && entries.contains(path.toAbsolutePath().normalize());
+    }
+
+    @Override
+    public synchronized void accept(final List<FileEvent> events) {
+        for (FileEvent event : events) {
+            final Path path = event.getPath();
+            switch (event.getKind()) {
+                case CREATE:
+                case MODIFY:
+                    //MODIFY也可能是漏掉了CREATE的条目(比如先删后建被合并了)，保证它在索引里
+                    add(path, Files.isDirectory(path));
+                    break;
+                case DELETE:
+                    remove(path);
+                    break;
+                case OVERFLOW:
+                    rescan(path);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 停止watch()启动的监控器，索引停在当前状态
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    /**
+     * 重扫一个目录：先删掉它在索引里的整个子树，再重新遍历
+     */
+    private void rescan(final Path dir) {
+        removeChildren(dir);
+        try {
+            if (Files.isDirectory(dir)) {
+                scan(dir);
+            } else {
+                remove(dir);
+            }
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            lastFailure = e;
+        }
+    }
+
+    private void scan(final Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path subDir, final BasicFileAttributes attrs) {
+                if (subDir.equals(dir)) {
+                    children.computeIfAbsent(subDir, key -> ConcurrentHashMap.newKeySet());
+                } else {
+                    add(subDir, true);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                add(file, false);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void add(final Path path, final boolean directory) {
+        final Path parent = path.getParent();
+        if (parent == null || !path.startsWith(root) || path.equals(root)) {
+            return;
+        }
+        if (directory) {
+            children.computeIfAbsent(path, key -> ConcurrentHashMap.newKeySet());
+        }
+        if (children.computeIfAbsent(parent, key -> ConcurrentHashMap.newKeySet()).add(path)) {
+            count.incrementAndGet();
+            final String suffix = suffixOf(path);
+            if (suffix != null) {
+                bySuffix.computeIfAbsent(suffix, key -> ConcurrentHashMap.newKeySet()).add(path);
+            }
+        }
+    }
+
+    private void remove(final Path path) {
+        removeChildren(path);
+        children.remove(path);
+        final Set<Path> siblings = path.getParent() == null ? null : children.get(path.getParent());
+        if (siblings != null && siblings.remove(path)) {
+            count.decrementAndGet();
+            final String suffix = suffixOf(path);
+            final Set<Path> sameSuffix = suffix == null ? null : bySuffix.get(suffix);
+            if (sameSuffix != null) {
+                sameSuffix.remove(path);
+            }
+        }
+    }
+
+    private void removeChildren(final Path dir) {
+        final Set<Path> entries = children.get(dir);
+        if (entries != null) {
+            new ArrayList<>(entries).forEach(this::remove);
+        }
+    }
+
+    private static String suffixOf(final Path path) {
+        final String name = path.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        return dot <= 0 ? null : name.substring(dot);
+    }
+}
@@ -0,0 +1,176 @@
+import java.io.File;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 惰性的目录展开流
+ * <p>
+ * 和Demo12.betterWay()的语义一样：对目录下的每个条目，如果它是目录就展开成它的子条目，否则就是它自己。
+ * 不同的是：
+ * 1、每个条目只调用一次File.list()，返回null说明不是目录，不会像betterWay()那样listFiles()两次；
+ * 2、子条目是在遍历到的时候才去列、才创建File对象的，不会先把所有的File[]都建好；
+ * 3、Spliterator按顶层条目的下标对半切分，并行流能均匀地分到各个线程上；
+ * 4、只需要数量的话用count()，它只数名字，不会为第二层的条目创建File对象。
+ */
+public final class FileTreeStream {
+    private FileTreeStream() {
+    }
+
+    /**
+     * 展开目录的直接子目录，dir不是目录或者不可读时返回空流
+     */
+    public static Stream<File> flatten(final File dir, final boolean parallel) {
+        final String[] names = dir.list();
+        if (names == null) {
+            return Stream.empty();
+        }
+        return StreamSupport.stream(new FlattenSpliterator(dir, names, 0, names.length), parallel);
+    }
+
+    /**
+     * 和flatten(dir, true).count()结果一样，但是只处理文件名
+     */
+    public static long count(final File dir) {
+        final String[] names = dir.list();
+        if (names == null) {
+            return 0;
+        }
+        return IntStream.range(0, names.length)
+                .parallel()
+                .mapToLong(i -> {
+                    final String[] children = new File(dir, names[i]).list();
+                    return children == null ? 1 : children.length;
+                })
+                .sum();
+    }
+
+    private static final class FlattenSpliterator implements Spliterator<File> {
+        private final File dir;
+        private final String[] names;
+        private int lo;
+        private final int hi;
+        //当前正在展开的子目录及它的子条目名字
+        private File current;
+        private String[] children;
+        private int childIndex;
+
+        private FlattenSpliterator(final File theDir, final String[] theNames, final int theLo, final int theHi) {
+            dir = theDir;
+            names = theNames;
+            lo = theLo;
+            hi = theHi;
+        }
+
+        @Override
+        public boolean tryAdvance(final Consumer<? super File> action) {
+            while (true) {
+                if (children != null && childIndex < children.length) {
+                    action.accept(new File(current, children[childIndex++]));
+                    return true;
+                }
+                children = null;
+                if (lo >= hi) {
+                    return false;
+                }
+                final File file = new File(dir, names[lo++]);
+                final String[] list = file.list();
+                if (list == null) {
+                    action.accept(file);
+                    return true;
+                }
+                //空目录不产生任何元素，和betterWay()一致
+                current = file;
+                children = list;
+                childIndex = 0;
+            }
+        }
+
+        @Override
+        public Spliterator<File> trySplit() {
+            final int mid = (lo + hi) >>> 1;
+            if (mid <= lo) {
+                return null;
+            }
+            //前一半交出去，自己保留后一半
+            final Spliterator<File> prefix = new FlattenSpliterator(dir, names, lo, mid);
+            if (children != null) {
+                return splitAfterCurrent(prefix, mid);
+            }
+            lo = mid;
+            return prefix;
+        }
+
+        /**
+         * 当前还有没展开完的子条目时，要保证遍历顺序：交出去的是当前剩下的子条目加上[lo, mid)，自己保留[mid, hi)
+         */
+        private Spliterator<File> splitAfterCurrent(final Spliterator<File> prefix, final int mid) {
+            final File parent = current;
+            final Spliterator<File> head = Spliterators.spliterator(
+                    Stream.of(children).skip(childIndex).map(name -> new File(parent, name)).iterator(),
+                    children.length - childIndex, characteristics());
+            children = null;
+            lo = mid;
+            return new Concat(head, prefix);
+        }
+
+        @Override
+        public long estimateSize() {
+            final long pending = children == null ? 0 : children.length - childIndex;
+            return pending + hi - lo;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | NONNULL | IMMUTABLE;
+        }
+    }
+
+    /**
+     * 把两个Spliterator首尾相接，切分时直接把前一个交出去
+     */
+    private static final class Concat implements Spliterator<File> {
+        private Spliterator<File> first;
+        private final Spliterator<File> second;
+
+        private Concat(final Spliterator<File> theFirst, final Spliterator<File> theSecond) {
+            first = theFirst;
+            second = theSecond;
+        }
+
+        @Override
+        public boolean tryAdvance(final Consumer<? super File> action) {
+            if (first != null) {
+                if (first.tryAdvance(action)) {
+                    return true;
+                }
+                first = null;
+            }
+            return second.tryAdvance(action);
+        }
+
+        @Override
+        public Spliterator<File> trySplit() {
+            if (first == null) {
+                return second.trySplit();
+            }
+            final Spliterator<File> prefix = first;
+            first = null;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            final long size = (first == null ? 0 : first.estimateSize()) + second.estimateSize();
+            return size < 0 ? Long.MAX_VALUE : size;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | NONNULL | IMMUTABLE;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 文件监控器
+ * <p>
+ * 实现类在构造时拿到一个Consumer&lt;List&lt;FileEvent&gt;&gt;，start()之后把合并好的一批批事件交给它。
+ * 同一个监控器的事件总是在同一个线程上按顺序交付的，close()之后不会再有新的事件。
+ */
+public interface FileWatcher extends Closeable {
+    void start() throws IOException;
+}
@@ -0,0 +1,555 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 整数列上的惰性查询
+ * <p>
+ * Demo10里的filter(stu -&gt; stu.getAge() &gt; 20)、Demo07里的mapToInt(String::length).sum()都走通用的Stream，
+ * 每个元素在每个阶段都要经过一次接口调用，这些调用点被各种lambda共用，JIT没办法内联。这里换一种做法：
+ * <pre>
+ * final IntQuery ages = IntQuery.of(people, Student::getAge);   //只抽取一次年龄列
+ * final long count = ages.greaterThan(20).count();
+ * final List&lt;Student&gt; olderThan20 = ages.greaterThan(20).select(people);
+ * </pre>
+ * 1、filter/map这些方法只是往计划里加一步，调用count()、sum()这样的终结方法时才执行；
+ * 2、用数据描述的步骤(greaterThan、between、add、multiply等)在执行前会合并：相邻的范围过滤求交集，
+ * 相邻的加法乘法合成一个x * a + b，explain()可以看到合并后的计划；
+ * 3、执行时每次处理4096个元素的一块，复制到每段自己的int数组里，每一步是对这块数据的一个紧凑的原始类型循环，
+ * 过滤用无分支的写法原地压缩，整块数据一直在L1缓存里，没有装箱也没有逐元素的虚调用；
+ * 任意的IntPredicate/IntUnaryOperator也可以用，每个元素调用一次。执行它们的循环按lambda的类各复制一份(见Kernels)，
+ * 每份循环里的调用点只见过一种lambda，JIT可以把它内联进来，不会因为所有查询共用同一个调用点而变成多态调用；
+ * 4、parallel()之后按段在ForkJoinPool里并行，结果的顺序和串行的一样。
+ * <p>
+ * Java 8没有隐藏类，但有类加载器和MethodHandle：不用生成新的代码，把预先写好的循环的字节码在新的类加载器里
+ * 再定义一次就得到了一个有自己的调用点的副本，通过MethodHandle每块调用一次，这一次调用内联不了也没有关系。
+ * 字节码读不到的时候(比如类不是从普通的class文件加载的)退回所有lambda共用的那一份。
+ * 对比JDK Stream的性能用IntQueryBenchmark。
+ */
+public final class IntQuery {
+    private static final int CHUNK = 4096;
+
+    private enum Kind {
+        RANGE, PREDICATE, AFFINE, FUNCTION
+    }
+
+    private enum Terminal {
+        COUNT, SUM, STATS, VALUES, INDEXES
+    }
+
+    private final int[] source;
+    private final List<Op> plan;
+    private final boolean parallel;
+
+    private IntQuery(final int[] theSource, final List<Op> thePlan, final boolean isParallel) {
+        source = theSource;
+        plan = thePlan;
+        parallel = isParallel;
+    }
+
+    /**
+     * 直接查询数组，数组不会被复制，查询期间不要修改它
+     */
+    public static IntQuery of(final int[] values) {
+        return new IntQuery(values, Collections.<Op>emptyList(), false);
+    }
+
+    /**
+     * 把records的一列抽取成int数组，之后的查询都在这个数组上进行。同一列要查多次时应该复用返回的对象
+     */
+    public static <T> IntQuery of(final List<? extends T> records, final ToIntFunction<? super T> column) {
+        final int[] values = new int[records.size()];
+        int i = 0;
+        for (T record : records) {
+            values[i++] = column.applyAsInt(record);
+        }
+        return of(values);
+    }
+
+    public IntQuery filter(final IntPredicate predicate) {
+        return then(Op.predicate(predicate));
+    }
+
+    public IntQuery greaterThan(final int value) {
+        return then(Op.range((long) value + 1, Integer.MAX_VALUE));
+    }
+
+    public IntQuery lessThan(final int value) {
+        return then(Op.range(Integer.MIN_VALUE, (long) value - 1));
+    }
+
+    /**
+     * 两端都包含
+     */
+    public IntQuery between(final int low, final int high) {
+        return then(Op.range(low, high));
+    }
+
+    public IntQuery equalTo(final int value) {
+        return then(Op.range(value, value));
+    }
+
+    public IntQuery map(final IntUnaryOperator function) {
+        return then(Op.function(function));
+    }
+
+    public IntQuery add(final int value) {
+        return then(Op.affine(1, value));
+    }
+
+    public IntQuery multiply(final int value) {
+        return then(Op.affine(value, 0));
+    }
+
+    public IntQuery parallel() {
+        return new IntQuery(source, plan, true);
+    }
+
+    public IntQuery sequential() {
+        return new IntQuery(source, plan, false);
+    }
+
+    public long count() {
+        if (plan.isEmpty()) {
+            return source.length;
+        }
+        return run(Terminal.COUNT).stream().mapToLong(partial -> partial.count).sum();
+    }
+
+    public long sum() {
+        return run(Terminal.SUM).stream().mapToLong(partial -> partial.sum).sum();
+    }
+
+    public OptionalInt min() {
+        final Partial total = combine(run(Terminal.STATS));
+        return total.count == 0 ? OptionalInt.empty() : OptionalInt.of(total.min);
+    }
+
+    public OptionalInt max() {
+        final Partial total = combine(run(Terminal.STATS));
+        return total.count == 0 ? OptionalInt.empty() : OptionalInt.of(total.max);
+    }
+
+    public OptionalDouble average() {
+        final Partial total = combine(run(Terminal.SUM));
+        return total.count == 0 ? OptionalDouble.empty() : OptionalDouble.of((double) total.sum / total.count);
+    }
+
+    /**
+     * 计划执行之后留下来的值
+     */
+    public int[] toArray() {
+        return concat(run(Terminal.VALUES));
+    }
+
+    /**
+     * 留下来的元素在源数组里的下标，map不影响下标
+     */
+    public int[] indexes() {
+        return concat(run(Terminal.INDEXES));
+    }
+
+    /**
+     * 按indexes()从records里取出对应的记录，records要和抽取列时的是同一个列表
+     */
+    public <T> List<T> select(final List<T> records) {
+        if (records.size() != source.length) {
+            throw new IllegalArgumentException("Expected " + source.length + " records but got " + records.size());
+        }
+        final int[] selected = indexes();
+        final List<T> result = new ArrayList<>(selected.length);
+        for (int index : selected) {
+            result.add(records.get(index));
+        }
+        return result;
+    }
+
+    /**
+     * 合并之后实际执行的计划
+     */
+    public String explain() {
+        return optimize(plan).stream()
+                .map(Op::toString)
+                .collect(Collectors.joining(" -> ", "scan[" + source.length + "]"
+                        + (parallel ? " parallel" : "") + (plan.isEmpty() ? "" : " -> "), ""));
+    }
+
+    private IntQuery then(final Op op) {
+        final List<Op> extended = new ArrayList<>(plan.size() + 1);
+        extended.addAll(plan);
+        extended.add(op);
+        return new IntQuery(source, Collections.unmodifiableList(extended), parallel);
+    }
+
+    /**
+     * 相邻的范围过滤求交集，相邻的线性变换合成一个
+     */
+    private static List<Op> optimize(final List<Op> plan) {
+        final List<Op> optimized = new ArrayList<>(plan.size());
+        for (Op op : plan) {
+            final Op last = optimized.isEmpty() ? null : optimized.get(optimized.size() - 1);
+            if (last != null && last.kind == Kind.RANGE && op.kind == Kind.RANGE) {
+                optimized.set(optimized.size() - 1, Op.range(Math.max(last.low, op.low), Math.min(last.high, op.high)));
+            } else if (last != null && last.kind == Kind.AFFINE && op.kind == Kind.AFFINE) {
+                //op.a * (last.a * x + last.b) + op.b，int溢出的结果和分两步算的一样
+                optimized.set(optimized.size() - 1, Op.affine(op.a * last.a, op.a * last.b + op.b));
+            } else {
+                optimized.add(op);
+            }
+        }
+        return optimized;
+    }
+
+    private List<Partial> run(final Terminal terminal) {
+        final Op[] ops = optimize(plan).toArray(new Op[0]);
+        final int segments = parallel
+                ? Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, source.length / CHUNK))
+                : 1;
+        //每段的长度取块大小的整数倍，只有最后一段可能有不满的块
+        final int segmentLength = (source.length / CHUNK + segments - 1) / segments * CHUNK;
+        final IntStream ids = IntStream.range(0, segments);
+        return (parallel ? ids.parallel() : ids)
+                .mapToObj(segment -> {
+                    final int from = Math.min(source.length, segment * segmentLength);
+                    final int to = segment == segments - 1 ? source.length : Math.min(source.length, from + segmentLength);
+                    return scan(ops, terminal, from, to);
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 一块一块地处理[from, to)
+     */
+    private Partial scan(final Op[] ops, final Terminal terminal, final int from, final int to) {
+        final Partial partial = new Partial();
+        final int[] values = new int[CHUNK];
+        final int[] indexes = terminal == Terminal.INDEXES ? new int[CHUNK] : null;
+        for (int start = from; start < to; start += CHUNK) {
+            int size = Math.min(CHUNK, to - start);
+            System.arraycopy(source, start, values, 0, size);
+            if (indexes != null) {
+                for (int i = 0; i < size; i++) {
+                    indexes[i] = start + i;
+                }
+            }
+            for (int i = 0; i < ops.length && size > 0; i++) {
+                size = ops[i].apply(values, indexes, size);
+            }
+            partial.accept(terminal, values, indexes, size);
+        }
+        return partial;
+    }
+
+    private static Partial combine(final List<Partial> partials) {
+        final Partial total = new Partial();
+        for (Partial partial : partials) {
+            total.count += partial.count;
+            total.sum += partial.sum;
+            total.min = Math.min(total.min, partial.min);
+            total.max = Math.max(total.max, partial.max);
+        }
+        return total;
+    }
+
+    private static int[] concat(final List<Partial> partials) {
+        int length = 0;
+        for (Partial partial : partials) {
+            for (int[] chunk : partial.chunks) {
+                length += chunk.length;
+            }
+        }
+        final int[] result = new int[length];
+        int position = 0;
+        for (Partial partial : partials) {
+            for (int[] chunk : partial.chunks) {
+                System.arraycopy(chunk, 0, result, position, chunk.length);
+                position += chunk.length;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 计划里的一步，对一块数据原地执行，返回执行之后剩下的元素个数
+     */
+    private static final class Op {
+        private final Kind kind;
+        private final long low;
+        private final long high;
+        private final int a;
+        private final int b;
+        private final IntPredicate predicate;
+        private final IntUnaryOperator function;
+        private final MethodHandle kernel;
+
+        private Op(final Kind theKind, final long theLow, final long theHigh, final int theA, final int theB,
+                   final IntPredicate thePredicate, final IntUnaryOperator theFunction) {
+            kind = theKind;
+            low = theLow;
+            high = theHigh;
+            a = theA;
+            b = theB;
+            predicate = thePredicate;
+            function = theFunction;
+            if (thePredicate != null) {
+                kernel = Kernels.FILTERS.get(thePredicate.getClass());
+            } else if (theFunction != null) {
+                kernel = Kernels.MAPS.get(theFunction.getClass());
+            } else {
+                kernel = null;
+            }
+        }
+
+        private static Op range(final long low, final long high) {
+            return new Op(Kind.RANGE, low, high, 0, 0, null, null);
+        }
+
+        private static Op affine(final int a, final int b) {
+            return new Op(Kind.AFFINE, 0, 0, a, b, null, null);
+        }
+
+        private static Op predicate(final IntPredicate predicate) {
+            return new Op(Kind.PREDICATE, 0, 0, 0, 0, predicate, null);
+        }
+
+        private static Op function(final IntUnaryOperator function) {
+            return new Op(Kind.FUNCTION, 0, 0, 0, 0, null, function);
+        }
+
+        private int apply(final int[] values, final int[] indexes, final int size) {
+            switch (kind) {
+                case RANGE:
+                    return range(values, indexes, size);
+                case AFFINE:
+                    for (int i = 0; i < size; i++) {
+                        values[i] = values[i] * a + b;
+                    }
+                    return size;
+                default:
+                    break;
+            }
+            try {
+                return kind == Kind.PREDICATE
+                        ? (int) kernel.invokeExact(predicate, values, indexes, size)
+                        : (int) kernel.invokeExact(function, values, indexes, size);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                //lambda偷偷抛出的受检异常
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * 无分支的原地压缩：每个元素都写到kept的位置，通过了kept才加一
+         */
+        private int range(final int[] values, final int[] indexes, final int size) {
+            if (low > high) {
+                return 0;
+            }
+            //两次比较变成一次：low <= v <= high 等价于按无符号数比较 (v - low) <= (high - low)
+            final int lowInt = (int) low;
+            final int span = (int) (high - low) ^ Integer.MIN_VALUE;
+            int kept = 0;
+            if (indexes == null) {
+                for (int i = 0; i < size; i++) {
+                    final int value = values[i];
+                    values[kept] = value;
+                    kept += ((value - lowInt) ^ Integer.MIN_VALUE) <= span ? 1 : 0;
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    final int value = values[i];
+                    values[kept] = value;
+                    indexes[kept] = indexes[i];
+                    kept += ((value - lowInt) ^ Integer.MIN_VALUE) <= span ? 1 : 0;
+                }
+            }
+            return kept;
+        }
+
+        public String toString() {
+            switch (kind) {
+                case RANGE:
+                    return low > high ? "none" : "between(" + low + ", " + high + ")";
+                case AFFINE:
+                    return "map(x * " + a + " + " + b + ")";
+                case PREDICATE:
+                    return "filter(" + predicate + ")";
+                default:
+                    return "map(" + function + ")";
+            }
+        }
+    }
+
+    /**
+     * 任意lambda的过滤和映射循环
+     * <p>
+     * 这个类只有这两个循环，只用到JDK里的类型，也没有静态初始化，所以它的字节码可以在别的类加载器里原样再定义一份，
+     * 见Kernels。
+     */
+    private static final class Kernel {
+        private Kernel() {
+        }
+
+        /**
+         * 无分支的原地压缩，和range()一样
+         */
+        private static int filter(final IntPredicate predicate, final int[] values, final int[] indexes,
+                                  final int size) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                final int value = values[i];
+                values[kept] = value;
+                if (indexes != null) {
+                    indexes[kept] = indexes[i];
+                }
+                kept += predicate.test(value) ? 1 : 0;
+            }
+            return kept;
+        }
+
+        private static int map(final IntUnaryOperator function, final int[] values, final int[] indexes,
+                               final int size) {
+            for (int i = 0; i < size; i++) {
+                values[i] = function.applyAsInt(values[i]);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * 每出现一种新的lambda类，就把Kernel的字节码在一个新的类加载器里再定义一份，副本里循环的调用点只会见到这一种lambda。
+     * 副本按lambda的类缓存，同一个lambda表达式的各个实例共用一份
+     */
+    private static final class Kernels {
+        private static final byte[] BYTECODE = readBytecode();
+        private static final MethodHandle SHARED_FILTER = find(Kernel.class, "filter", IntPredicate.class);
+        private static final MethodHandle SHARED_MAP = find(Kernel.class, "map", IntUnaryOperator.class);
+        private static final ClassValue<MethodHandle> FILTERS = new ClassValue<MethodHandle>() {
+            @Override
+            protected MethodHandle computeValue(final Class<?> lambdaClass) {
+                final Class<?> copy = copy();
+                return copy == null ? SHARED_FILTER : find(copy, "filter", IntPredicate.class);
+            }
+        };
+        private static final ClassValue<MethodHandle> MAPS = new ClassValue<MethodHandle>() {
+            @Override
+            protected MethodHandle computeValue(final Class<?> lambdaClass) {
+                final Class<?> copy = copy();
+                return copy == null ? SHARED_MAP : find(copy, "map", IntUnaryOperator.class);
+            }
+        };
+
+        private Kernels() {
+        }
+
+        private static byte[] readBytecode() {
+            final String name = Kernel.class.getName();
+            try (InputStream in = Kernel.class.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+                if (in == null) {
+                    return null;
+                }
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+                return out.toByteArray();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private static Class<?> copy() {
+            if (BYTECODE == null) {
+                return null;
+            }
+            try {
+                return new CopyLoader(Kernel.class.getClassLoader()).define(Kernel.class.getName(), BYTECODE);
+            } catch (LinkageError | SecurityException e) {
+                return null;
+            }
+        }
+
+        private static MethodHandle find(final Class<?> kernelClass, final String name, final Class<?> lambdaType) {
+            try {
+                final Method method = kernelClass.getDeclaredMethod(name, lambdaType, int[].class, int[].class,
+                        int.class);
+                //副本在另一个类加载器里，属于不同的运行时包，私有方法要先打开访问
+                method.setAccessible(true);
+                return MethodHandles.lookup().unreflect(method);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final class CopyLoader extends ClassLoader {
+        private CopyLoader(final ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> define(final String name, final byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+
+    /**
+     * 一段的执行结果
+     */
+    private static final class Partial {
+        private long count;
+        private long sum;
+        private int min = Integer.MAX_VALUE;
+        private int max = Integer.MIN_VALUE;
+        private final List<int[]> chunks = new ArrayList<>();
+
+        private void accept(final Terminal terminal, final int[] values, final int[] indexes, final int size) {
+            count += size;
+            switch (terminal) {
+                case SUM:
+                    long total = 0;
+                    for (int i = 0; i < size; i++) {
+                        total += values[i];
+                    }
+                    sum += total;
+                    break;
+                case STATS:
+                    int low = min;
+                    int high = max;
+                    for (int i = 0; i < size; i++) {
+                        low = Math.min(low, values[i]);
+                        high = Math.max(high, values[i]);
+                    }
+                    min = low;
+                    max = high;
+                    break;
+                case VALUES:
+                    chunks.add(Arrays.copyOf(values, size));
+                    break;
+                case INDEXES:
+                    chunks.add(Arrays.copyOf(indexes, size));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
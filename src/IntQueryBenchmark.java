@@ -0,0 +1,96 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * IntQuery和JDK Stream的对比
+ * <p>
+ * 几组查询交替执行，每组先预热再取多次运行的中位数，两边的结果必须一样。
+ * 两边都直接在同样的int数组上查询，比的是执行本身，不包括从记录里抽取列。
+ * 几组查询共用Stream的实现类，交替执行也让它们的调用点像实际项目里一样变成多态的；几个任意lambda的查询用来检查
+ * IntQuery给每种lambda复制的循环是不是真的没有受到其它lambda的影响。
+ * <p>
+ * 用法：java IntQueryBenchmark [records] [rounds]
+ */
+public class IntQueryBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        final int records = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final Random random = new Random(42);
+        final int[] ageColumn = new int[records];
+        final int[] values = new int[records];
+        for (int i = 0; i < records; i++) {
+            ageColumn[i] = random.nextInt(100);
+            values[i] = random.nextInt(1000);
+        }
+
+        final IntQuery ages = IntQuery.of(ageColumn);
+        final IntQuery numbers = IntQuery.of(values);
+        final String[] names = {
+                "count(age > 20)", "count(age > 20) parallel",
+                "sum(v > 20 -> v * 2 + 1)", "sum(v > 20 -> v * 2 + 1) parallel",
+                "average(30 <= v <= 600)", "min(lambda filter)",
+                "count(lambda filter)", "sum(lambda map, lambda filter)"
+        };
+        final LongSupplier[] streams = {
+                () -> Arrays.stream(ageColumn).filter(age -> age > 20).count(),
+                () -> Arrays.stream(ageColumn).parallel().filter(age -> age > 20).count(),
+                () -> Arrays.stream(values).filter(v -> v > 20).mapToLong(v -> v * 2 + 1).sum(),
+                () -> Arrays.stream(values).parallel().filter(v -> v > 20).mapToLong(v -> v * 2 + 1).sum(),
+                () -> Double.doubleToLongBits(Arrays.stream(values).filter(v -> v >= 30 && v <= 600)
+                        .average().orElse(0)),
+                () -> Arrays.stream(values).filter(v -> v % 7 == 3).min().orElse(-1),
+                () -> Arrays.stream(values).filter(v -> (v & 3) == 1).count(),
+                () -> Arrays.stream(values).map(v -> v * 3 ^ 5).filter(v -> v > 1000).asLongStream().sum()
+        };
+        final LongSupplier[] queries = {
+                () -> ages.greaterThan(20).count(),
+                () -> ages.greaterThan(20).parallel().count(),
+                () -> numbers.greaterThan(20).multiply(2).add(1).sum(),
+                () -> numbers.greaterThan(20).multiply(2).add(1).parallel().sum(),
+                () -> Double.doubleToLongBits(numbers.between(30, 600).average().orElse(0)),
+                () -> numbers.filter(v -> v % 7 == 3).min().orElse(-1),
+                () -> numbers.filter(v -> (v & 3) == 1).count(),
+                () -> numbers.map(v -> v * 3 ^ 5).filter(v -> v > 1000).sum()
+        };
+
+        final long[][] streamTimes = new long[names.length][rounds];
+        final long[][] queryTimes = new long[names.length][rounds];
+        for (int round = -WARMUP_ROUNDS; round < rounds; round++) {
+            for (int i = 0; i < names.length; i++) {
+                long start = System.nanoTime();
+                final long expected = streams[i].getAsLong();
+                final long streamTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                final long actual = queries[i].getAsLong();
+                final long queryTime = System.nanoTime() - start;
+                if (expected != actual) {
+                    throw new IllegalStateException(names[i] + ": expected " + expected + " but got " + actual);
+                }
+                if (round >= 0) {
+                    streamTimes[i][round] = streamTime;
+                    queryTimes[i][round] = queryTime;
+                }
+            }
+        }
+
+        System.out.printf("%-36s %12s %12s %8s%n", "query", "stream(us)", "IntQuery(us)", "speedup");
+        for (int i = 0; i < names.length; i++) {
+            final long streamTime = median(streamTimes[i]);
+            final long queryTime = median(queryTimes[i]);
+            System.out.printf("%-36s %12d %12d %7.1fx%n", names[i],
+                    TimeUnit.NANOSECONDS.toMicros(streamTime), TimeUnit.NANOSECONDS.toMicros(queryTime),
+                    (double) streamTime / Math.max(1, queryTime));
+        }
+        System.out.println("Plan: " + numbers.greaterThan(20).multiply(2).add(1).parallel().explain());
+    }
+
+    private static long median(final long[] times) {
+        final long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
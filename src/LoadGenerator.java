@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QueryServer的压测工具
+ * <p>
+ * 用一个NIO选择器线程维持大量并发的长连接(默认1万个)，每个连接收到上一个响应后立刻发下一个请求，
+ * 最后输出吞吐量和p50/p99/p99.9延迟。一个线程就能撑起上万个连接，压测端本身不会成为瓶颈的主要来源。
+ * <p>
+ * 用法：java LoadGenerator [host] [port] [connections] [seconds] [path]
+ * 连接数很多时注意调大文件句柄上限(ulimit -n)。
+ */
+public class LoadGenerator {
+    private static final byte[] HEADER_END = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_LENGTH = "content-length:".getBytes(StandardCharsets.US_ASCII);
+
+    private final InetSocketAddress address;
+    private final int connections;
+    private final long durationNanos;
+    private final byte[] request;
+    private long[] latencies = new long[1 << 16];
+    private int completed;
+    private int errors;
+
+    public LoadGenerator(final String host, final int port, final int theConnections,
+                         final long duration, final TimeUnit unit, final String path) {
+        address = new InetSocketAddress(host, port);
+        connections = theConnections;
+        durationNanos = unit.toNanos(duration);
+        request = ("GET " + path + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static void main(String[] args) throws IOException {
+        final String host = args.length > 0 ? args[0] : "127.0.0.1";
+        final int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        final int connections = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        final int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        final String path = args.length > 4 ? args[4] : "/names?prefix=N";
+        System.out.println(new LoadGenerator(host, port, connections, seconds, TimeUnit.SECONDS, path).run());
+    }
+
+    /**
+     * 运行压测，返回结果摘要
+     */
+    public String run() throws IOException {
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < connections; i++) {
+                final SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(address);
+                channel.register(selector, SelectionKey.OP_CONNECT, new Connection());
+            }
+            final long start = System.nanoTime();
+            final long deadline = start + durationNanos;
+            while (System.nanoTime() - deadline < 0) {
+                selector.select(100);
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        handle(key, deadline);
+                    } catch (IOException e) {
+                        errors++;
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            }
+            final long elapsed = System.nanoTime() - start;
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            return summary(elapsed);
+        }
+    }
+
+    private void handle(final SelectionKey key, final long deadline) throws IOException {
+        final SocketChannel channel = (SocketChannel) key.channel();
+        final Connection connection = (Connection) key.attachment();
+        if (key.isConnectable()) {
+            //连接还没建立完时保持OP_CONNECT，下次再试
+            if (channel.finishConnect()) {
+                send(key, connection);
+            }
+            return;
+        }
+        if (key.isWritable()) {
+            channel.write(connection.out);
+            if (!connection.out.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            return;
+        }
+        if (key.isReadable()) {
+            if (channel.read(connection.in) < 0) {
+                throw new IOException("Connection closed by server");
+            }
+            if (connection.isComplete()) {
+                record(System.nanoTime() - connection.sentAt);
+                if (System.nanoTime() - deadline < 0) {
+                    send(key, connection);
+                }
+            } else if (!connection.in.hasRemaining()) {
+                connection.grow();
+            }
+        }
+    }
+
+    private void send(final SelectionKey key, final Connection connection) throws IOException {
+        connection.in.clear();
+        connection.out = ByteBuffer.wrap(request);
+        connection.sentAt = System.nanoTime();
+        ((SocketChannel) key.channel()).write(connection.out);
+        key.interestOps(connection.out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void record(final long latency) {
+        if (completed == latencies.length) {
+            latencies = Arrays.copyOf(latencies, completed * 2);
+        }
+        latencies[completed++] = latency;
+    }
+
+    private String summary(final long elapsedNanos) {
+        final long[] sorted = Arrays.copyOf(latencies, completed);
+        Arrays.sort(sorted);
+        return String.format("connections=%d requests=%d errors=%d throughput=%.0f req/s "
+                        + "p50=%dus p99=%dus p99.9=%dus max=%dus",
+                connections, completed, errors, completed / (elapsedNanos / 1e9),
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                sorted.length == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(sorted[sorted.length - 1]));
+    }
+
+    private static long percentile(final long[] sorted, final double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, index)]);
+    }
+
+    private static final class Connection {
+        private ByteBuffer in = ByteBuffer.allocate(1024);
+        private ByteBuffer out;
+        private long sentAt;
+
+        /**
+         * 响应头已经收全，并且收到了Content-Length那么长的响应体
+         */
+        private boolean isComplete() {
+            final int headerEnd = indexOf(in, HEADER_END, 0);
+            if (headerEnd < 0) {
+                return false;
+            }
+            return in.position() >= headerEnd + HEADER_END.length + contentLength(headerEnd);
+        }
+
+        private int contentLength(final int headerEnd) {
+            final int at = indexOfIgnoreCase(in, CONTENT_LENGTH, headerEnd);
+            if (at < 0) {
+                return 0;
+            }
+            int length = 0;
+            for (int i = at + CONTENT_LENGTH.length; i < headerEnd; i++) {
+                final byte b = in.get(i);
+                if (b >= '0' && b <= '9') {
+                    length = length * 10 + (b - '0');
+                } else if (b != ' ') {
+                    break;
+                }
+            }
+            return length;
+        }
+
+        private void grow() {
+            final ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+        }
+
+        private static int indexOf(final ByteBuffer buffer, final byte[] part, final int limit) {
+            final int end = (limit > 0 ? limit : buffer.position()) - part.length;
+            outer:
+            for (int i = 0; i <= end; i++) {
+                for (int j = 0; j < part.length; j++) {
+                    if (buffer.get(i + j) != part[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        private static int indexOfIgnoreCase(final ByteBuffer buffer, final byte[] lowerCase, final int limit) {
+            outer:
+            for (int i = 0; i <= limit - lowerCase.length; i++) {
+                for (int j = 0; j < lowerCase.length; j++) {
+                    if (Character.toLowerCase((char) buffer.get(i + j)) != lowerCase[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 基于内存映射的并行按行读取
+ * <p>
+ * 要在几个GB的按行组织的文件上跑Demo03到Demo07那样的map/filter/reduce，Files.lines()是串行解码的，
+ * 并行流也切分不好。这里把文件映射到内存，按换行符的边界对半切分成多个块交给并行流，
+ * 每一行先以原始字节(Line)的形式出现，filter可以直接在字节上判断，通过了再调用toString()按UTF-8解码成String。
+ * <p>
+ * 单次映射不能超过2GB，所以每个块按窗口分段映射，超过窗口大小的单行会抛异常。
+ * 行尾的"\r\n"和"\n"都会去掉。
+ */
+public final class MappedLineReader {
+    /**
+     * 每次映射的窗口大小
+     */
+    private static final int WINDOW = 256 << 20;
+    /**
+     * 小于这个大小的块不再切分，切得太碎调度的开销就超过收益了
+     */
+    private static final long MIN_SPLIT = 1 << 20;
+
+    private MappedLineReader() {
+    }
+
+    /**
+     * 按行读取文件，流关闭时关闭文件
+     */
+    public static Stream<Line> lines(final Path file, final boolean parallel) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return StreamSupport.stream(new LineSpliterator(channel, 0, channel.size()), parallel)
+                    .onClose(() -> {
+                        try {
+                            channel.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 一行的原始字节，指向映射的内存，不做拷贝
+     */
+    public static final class Line {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int length;
+
+        private Line(final ByteBuffer theBuffer, final int theOffset, final int theLength) {
+            buffer = theBuffer;
+            offset = theOffset;
+            length = theLength;
+        }
+
+        /**
+         * 字节数，不是字符数
+         */
+        public int length() {
+            return length;
+        }
+
+        public byte byteAt(final int index) {
+            return buffer.get(offset + index);
+        }
+
+        public boolean isEmpty() {
+            return length == 0;
+        }
+
+        /**
+         * 不解码，直接比较字节。ASCII前缀可以用"N".getBytes(StandardCharsets.UTF_8)
+         */
+        public boolean startsWith(final byte[] prefix) {
+            if (prefix.length > length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (buffer.get(offset + i) != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean endsWith(final byte[] suffix) {
+            if (suffix.length > length) {
+                return false;
+            }
+            final int start = offset + length - suffix.length;
+            for (int i = 0; i < suffix.length; i++) {
+                if (buffer.get(start + i) != suffix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean contains(final byte[] part) {
+            return indexOf(part) >= 0;
+        }
+
+        public int indexOf(final byte[] part) {
+            outer:
+            for (int i = 0; i <= length - part.length; i++) {
+                for (int j = 0; j < part.length; j++) {
+                    if (buffer.get(offset + i + j) != part[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        public byte[] toBytes() {
+            final byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(offset + i);
+            }
+            return bytes;
+        }
+
+        /**
+         * 到这里才按UTF-8解码
+         */
+        public String toString() {
+            return new String(toBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class LineSpliterator implements Spliterator<Line> {
+        private final FileChannel channel;
+        //[position, end)是还没读的部分，position总是在行首
+        private long position;
+        private final long end;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        private LineSpliterator(final FileChannel theChannel, final long start, final long theEnd) {
+            channel = theChannel;
+            position = start;
+            end = theEnd;
+        }
+
+        @Override
+        public boolean tryAdvance(final Consumer<? super Line> action) {
+            if (position >= end) {
+                return false;
+            }
+            try {
+                if (window == null || position >= windowStart + window.limit()) {
+                    map(position);
+                }
+                int from = (int) (position - windowStart);
+                int newline = indexOfNewline(window, from);
+                if (newline < 0 && windowStart + window.limit() < end) {
+                    //这一行跨过了窗口的结尾，从行首开始重新映射
+                    map(position);
+                    from = 0;
+                    newline = indexOfNewline(window, from);
+                    if (newline < 0 && window.limit() == WINDOW) {
+                        throw new IllegalStateException("Line longer than " + WINDOW + " bytes at " + position);
+                    }
+                }
+                final int stop = newline < 0 ? window.limit() : newline;
+                int length = stop - from;
+                if (length > 0 && window.get(from + length - 1) == '\r') {
+                    length--;
+                }
+                position = windowStart + (newline < 0 ? stop : stop + 1);
+                action.accept(new Line(window, from, length));
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void map(final long start) throws IOException {
+            windowStart = start;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, end - start));
+        }
+
+        private static int indexOfNewline(final ByteBuffer buffer, final int from) {
+            final int limit = buffer.limit();
+            for (int i = from; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 从中点往后找到第一个换行符，在它后面切开。前一半交出去，自己保留后一半
+         */
+        @Override
+        public Spliterator<Line> trySplit() {
+            if (window != null || end - position < MIN_SPLIT) {
+                return null;
+            }
+            try {
+                final long mid = nextLineStart(position + (end - position) / 2);
+                if (mid <= position || mid >= end) {
+                    return null;
+                }
+                final Spliterator<Line> prefix = new LineSpliterator(channel, position, mid);
+                position = mid;
+                return prefix;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * 不映射，用一个小缓冲区按位置读，找到from之后第一个换行符的下一个位置
+         */
+        private long nextLineStart(final long from) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long offset = from;
+            while (offset < end) {
+                buffer.clear();
+                final int read = channel.read(buffer, offset);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        return offset + i + 1;
+                    }
+                }
+                offset += read;
+            }
+            return end;
+        }
+
+        @Override
+        public long estimateSize() {
+            //按字节数估算，只用于比较两个块的大小
+            return end - position;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * MappedLineReader和Files.lines()的对比
+ * <p>
+ * 没有给文件时先生成一个：每行是一个名字、一个数字和一段中文，名字取自Demo04的朋友列表。
+ * 几组查询交替执行，串行和并行各一遍，每组先预热再取多次运行的中位数，两边的结果必须一样。
+ * 第一轮之后文件都在页缓存里，比的是解码和切分，不是磁盘。
+ * <p>
+ * 用法：java MappedLineReaderBenchmark [lines] [rounds] [file]
+ */
+public class MappedLineReaderBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final String[] FRIENDS = {"Brian", "Nate", "Neal", "Raju", "Sara", "Scott"};
+    private static final byte[] N = "N".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ZHANG = "张".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws IOException {
+        final int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final Path file;
+        if (args.length > 2) {
+            file = Paths.get(args[2]);
+        } else {
+            file = Files.createTempFile("lines", ".txt");
+            file.toFile().deleteOnExit();
+            long start = System.nanoTime();
+            generate(file, lineCount);
+            System.out.printf("Generated %d lines (%d MB) in %d ms%n", lineCount, Files.size(file) >> 20,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+
+        final String[] names = {
+                "count(startsWith N)", "count(startsWith N) parallel",
+                "sum(length, contains CJK)", "sum(length, contains CJK) parallel"
+        };
+        final LongSupplier[] streams = {
+                () -> filesLines(file, false, lines -> lines.filter(line -> line.startsWith("N")).count()),
+                () -> filesLines(file, true, lines -> lines.filter(line -> line.startsWith("N")).count()),
+                () -> filesLines(file, false, lines -> lines.filter(line -> line.contains("张"))
+                        .mapToLong(String::length).sum()),
+                () -> filesLines(file, true, lines -> lines.filter(line -> line.contains("张"))
+                        .mapToLong(String::length).sum())
+        };
+        final LongSupplier[] mapped = {
+                () -> mappedLines(file, false, lines -> lines.filter(line -> line.startsWith(N)).count()),
+                () -> mappedLines(file, true, lines -> lines.filter(line -> line.startsWith(N)).count()),
+                () -> mappedLines(file, false, lines -> lines.filter(line -> line.contains(ZHANG))
+                        .map(MappedLineReader.Line::toString).mapToLong(String::length).sum()),
+                () -> mappedLines(file, true, lines -> lines.filter(line -> line.contains(ZHANG))
+                        .map(MappedLineReader.Line::toString).mapToLong(String::length).sum())
+        };
+
+        final long[][] streamTimes = new long[names.length][rounds];
+        final long[][] mappedTimes = new long[names.length][rounds];
+        for (int round = -WARMUP_ROUNDS; round < rounds; round++) {
+            for (int i = 0; i < names.length; i++) {
+                long start = System.nanoTime();
+                final long expected = streams[i].getAsLong();
+                final long streamTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                final long actual = mapped[i].getAsLong();
+                final long mappedTime = System.nanoTime() - start;
+                if (expected != actual) {
+                    throw new IllegalStateException(names[i] + ": expected " + expected + " but got " + actual);
+                }
+                if (round >= 0) {
+                    streamTimes[i][round] = streamTime;
+                    mappedTimes[i][round] = mappedTime;
+                }
+            }
+        }
+
+        System.out.printf("%d CPUs%n", Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-36s %12s %12s %8s%n", "query", "lines(ms)", "mapped(ms)", "speedup");
+        for (int i = 0; i < names.length; i++) {
+            final long streamTime = median(streamTimes[i]);
+            final long mappedTime = median(mappedTimes[i]);
+            System.out.printf("%-36s %12d %12d %7.1fx%n", names[i],
+                    TimeUnit.NANOSECONDS.toMillis(streamTime), TimeUnit.NANOSECONDS.toMillis(mappedTime),
+                    (double) streamTime / Math.max(1, mappedTime));
+        }
+    }
+
+    private static void generate(final Path file, final int lineCount) throws IOException {
+        final Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lineCount; i++) {
+                writer.write(FRIENDS[random.nextInt(FRIENDS.length)]);
+                writer.write(' ');
+                writer.write(Integer.toString(random.nextInt(1_000_000)));
+                writer.write(random.nextInt(4) == 0 ? " 张三李四" : " 王五赵六");
+                writer.write('\n');
+            }
+        }
+    }
+
+    private interface LineQuery<T> {
+        long apply(Stream<T> lines);
+    }
+
+    private static long filesLines(final Path file, final boolean parallel, final LineQuery<String> query) {
+        try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+            return query.apply(parallel ? lines.parallel() : lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long mappedLines(final Path file, final boolean parallel,
+                                    final LineQuery<MappedLineReader.Line> query) {
+        try (Stream<MappedLineReader.Line> lines = MappedLineReader.lines(file, parallel)) {
+            return query.apply(lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long median(final long[] times) {
+        final long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
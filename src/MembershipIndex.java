@@ -0,0 +1,283 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 多个名字列表之间的交集、并集、差集和成员查询
+ * <p>
+ * Demo04里的friends、editors、comrades是三个独立的List，"哪些人同时在两个列表里"、"X在哪些列表里"这类问题
+ * 用List.contains()来做，每次查询都是线性的，两两组合起来就是平方级。这里在构造时给每个列表建三种表示：
+ * 1、去重后排好序的数组：交集和差集按它的顺序遍历，结果天然有序；并集两两归并；
+ * 2、HashSet：精确判断一个名字在不在列表里；
+ * 3、布隆过滤器(约1%误判率)：放在HashSet前面，名字大多不在列表里时只需要几次位运算就能排除，不用去比较字符串。
+ * 交集从最小的列表出发，差集从被减的列表出发，每个名字对其它列表各查一次，整体接近线性。
+ * <p>
+ * parallel为true时，建索引按列表并行，查询按名字并行，结果和串行的完全一样(按名字排序)。
+ * 建好之后索引不会再变，可以在多个线程里同时查询。
+ */
+public final class MembershipIndex {
+    private final Map<String, NameSet> lists;
+    private final boolean parallel;
+
+    /**
+     * @param namedLists 列表名到列表的映射，列表的顺序就是listsOf()返回的顺序
+     */
+    public MembershipIndex(final Map<String, ? extends Collection<String>> namedLists, final boolean isParallel) {
+        parallel = isParallel;
+        final List<String> names = new ArrayList<>(namedLists.keySet());
+        final List<NameSet> sets = stream(names)
+                .map(name -> new NameSet(namedLists.get(name)))
+                .collect(Collectors.toList());
+        final Map<String, NameSet> built = new LinkedHashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            built.put(names.get(i), sets.get(i));
+        }
+        lists = Collections.unmodifiableMap(built);
+    }
+
+    public Set<String> listNames() {
+        return lists.keySet();
+    }
+
+    /**
+     * 列表去重后的名字，按名字排序
+     */
+    public List<String> members(final String list) {
+        return Collections.unmodifiableList(Arrays.asList(set(list).sorted));
+    }
+
+    public boolean contains(final String list, final String name) {
+        return set(list).contains(name);
+    }
+
+    /**
+     * 包含name的所有列表
+     */
+    public List<String> listsOf(final String name) {
+        final List<String> found = new ArrayList<>();
+        lists.forEach((list, set) -> {
+            if (set.contains(name)) {
+                found.add(list);
+            }
+        });
+        return found;
+    }
+
+    /**
+     * 同时在所有给定列表里的名字
+     */
+    public List<String> intersection(final String... listNames) {
+        if (listNames.length == 0) {
+            return Collections.emptyList();
+        }
+        final List<NameSet> sets = sets(listNames);
+        //从最小的列表出发，其它列表按从小到大的顺序检查，小列表更容易把名字排除掉
+        sets.sort((set1, set2) -> Integer.compare(set1.sorted.length, set2.sorted.length));
+        final List<NameSet> others = sets.subList(1, sets.size());
+        return filter(sets.get(0).sorted, name -> others.stream().allMatch(set -> set.contains(name)));
+    }
+
+    /**
+     * 至少在一个给定列表里的名字
+     */
+    public List<String> union(final String... listNames) {
+        final String[][] arrays = sets(listNames).stream()
+                .map(set -> set.sorted)
+                .toArray(String[][]::new);
+        //两两归并成一棵平衡的树，每个名字只被复制log(k)次；并行时由并行流来拆分
+        final String[] merged = parallel
+                ? Arrays.stream(arrays).parallel().reduce(new String[0], MembershipIndex::merge)
+                : merge(arrays, 0, arrays.length);
+        return Collections.unmodifiableList(Arrays.asList(merged));
+    }
+
+    /**
+     * 在list里但不在任何一个others里的名字
+     */
+    public List<String> difference(final String list, final String... others) {
+        final List<NameSet> excluded = sets(others);
+        return filter(set(list).sorted, name -> excluded.stream().noneMatch(set -> set.contains(name)));
+    }
+
+    /**
+     * 至少出现在minLists个列表里的名字，比如minLists为2时是在多个列表里重复出现的名字
+     */
+    public List<String> inAtLeast(final int minLists) {
+        final Map<String, Long> counts = stream(new ArrayList<>(lists.values()))
+                .flatMap(set -> Arrays.stream(set.sorted))
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+        return stream(new ArrayList<>(counts.entrySet()))
+                .filter(entry -> entry.getValue() >= minLists)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * candidates里不在任何列表里的名字，按candidates的顺序。大多数名字会被布隆过滤器直接排除
+     */
+    public List<String> notInAny(final Collection<String> candidates) {
+        final Collection<NameSet> sets = lists.values();
+        return stream(new ArrayList<>(candidates))
+                .filter(name -> sets.stream().noneMatch(set -> set.contains(name)))
+                .collect(Collectors.toList());
+    }
+
+    private List<String> filter(final String[] names, final Predicate<String> predicate) {
+        final Stream<String> stream = parallel ? Arrays.stream(names).parallel() : Arrays.stream(names);
+        return Collections.unmodifiableList(Arrays.asList(stream.filter(predicate).toArray(String[]::new)));
+    }
+
+    private <E> Stream<E> stream(final List<E> elements) {
+        return parallel ? elements.parallelStream() : elements.stream();
+    }
+
+    private NameSet set(final String list) {
+        final NameSet set = lists.get(list);
+        if (set == null) {
+            throw new IllegalArgumentException("Unknown list: " + list);
+        }
+        return set;
+    }
+
+    private List<NameSet> sets(final String... listNames) {
+        final List<NameSet> sets = new ArrayList<>(listNames.length);
+        for (String list : listNames) {
+            sets.add(set(list));
+        }
+        return sets;
+    }
+
+    private static String[] merge(final String[][] arrays, final int from, final int to) {
+        if (to - from == 0) {
+            return new String[0];
+        }
+        if (to - from == 1) {
+            return arrays[from];
+        }
+        final int mid = (from + to) >>> 1;
+        return merge(merge(arrays, from, mid), merge(arrays, mid, to));
+    }
+
+    /**
+     * 归并两个有序去重的数组，结果也是有序去重的
+     */
+    private static String[] merge(final String[] first, final String[] second) {
+        if (first.length == 0) {
+            return second;
+        }
+        if (second.length == 0) {
+            return first;
+        }
+        final String[] merged = new String[first.length + second.length];
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < first.length && j < second.length) {
+            final int compare = first[i].compareTo(second[j]);
+            if (compare < 0) {
+                merged[size++] = first[i++];
+            } else if (compare > 0) {
+                merged[size++] = second[j++];
+            } else {
+                merged[size++] = first[i++];
+                j++;
+            }
+        }
+        while (i < first.length) {
+            merged[size++] = first[i++];
+        }
+        while (j < second.length) {
+            merged[size++] = second[j++];
+        }
+        return size == merged.length ? merged : Arrays.copyOf(merged, size);
+    }
+
+    /**
+     * 一个列表的三种表示
+     */
+    private static final class NameSet {
+        private final String[] sorted;
+        private final Set<String> hashed;
+        private final BloomFilter bloom;
+
+        private NameSet(final Collection<String> names) {
+            hashed = new HashSet<>(names);
+            sorted = hashed.toArray(new String[0]);
+            Arrays.sort(sorted);
+            bloom = new BloomFilter(sorted.length);
+            for (String name : sorted) {
+                bloom.add(name);
+            }
+        }
+
+        private boolean contains(final String name) {
+            return bloom.mightContain(name) && hashed.contains(name);
+        }
+    }
+
+    /**
+     * 每个元素约10位、7个哈希函数，误判率约1%。位数取2的幂，用掩码代替取模
+     * <p>
+     * 哈希用的是String缓存的hashCode，再用双重哈希(h1 + i * h2)生成7个位置，不用重新扫描字符串。
+     * hashCode相同的名字总会互相误判，这种情况由后面的HashSet兜底。
+     */
+    private static final class BloomFilter {
+        private static final int BITS_PER_ELEMENT = 10;
+        private static final int HASHES = 7;
+
+        private final long[] bits;
+        private final int mask;
+
+        private BloomFilter(final int expectedElements) {
+            final long wanted = Math.max(64L, (long) expectedElements * BITS_PER_ELEMENT);
+            final int size = (int) Math.min(1L << 30, Long.highestOneBit(wanted - 1) << 1);
+            bits = new long[size >>> 6];
+            mask = size - 1;
+        }
+
+        private void add(final String element) {
+            final int h1 = spread(element.hashCode());
+            final int h2 = secondHash(h1);
+            for (int i = 0; i < HASHES; i++) {
+                final int index = (h1 + i * h2) & mask;
+                bits[index >>> 6] |= 1L << index;
+            }
+        }
+
+        private boolean mightContain(final String element) {
+            final int h1 = spread(element.hashCode());
+            final int h2 = secondHash(h1);
+            for (int i = 0; i < HASHES; i++) {
+                final int index = (h1 + i * h2) & mask;
+                if ((bits[index >>> 6] & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int spread(final int hash) {
+            final int h = hash * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        /**
+         * 奇数，保证步长和2的幂互质，7个位置互不相同
+         */
+        private static int secondHash(final int h1) {
+            final int h = Integer.rotateLeft(h1, 16) * 0x85EBCA6B;
+            return (h ^ (h >>> 13)) | 1;
+        }
+    }
+}
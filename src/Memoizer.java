@@ -0,0 +1,327 @@
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 有容量上限的函数记忆化
+ * <p>
+ * Demo05里的checkIfStartWith(letter)和startsWithLetter.apply(letter)每次调用都会新建一个lambda。
+ * 实际项目里类似的工厂方法(编译正则、解析规则)代价很高，而且总是用同样的参数反复调用，
+ * 这时可以用Memoizer把Function&lt;K, V&gt;包一层，相同的参数直接返回上一次的结果：
+ * <pre>
+ * final Function&lt;String, Predicate&lt;String&gt;&gt; startsWith = new Memoizer&lt;&gt;(Demo05::checkIfStartWith, 64);
+ * </pre>
+ * 淘汰策略按W-TinyLFU的思路实现：
+ * 1、新条目先进入占总容量1%的窗口区(LRU)，从窗口区挤出来的条目要和主区里最该淘汰的条目比访问频率，高的才能留下；
+ * 2、访问频率用Count-Min Sketch(4位计数器)估算，计数总数达到容量的10倍时所有计数减半，让旧的热点慢慢冷下来；
+ * 3、主区分成试用区和保护区(占主区80%)，试用区的条目再被访问一次就升入保护区。
+ * <p>
+ * 读路径不加锁：直接查ConcurrentHashMap，访问记录写进一个有损的环形缓冲区，攒够了再抢锁批量处理，抢不到就丢掉，
+ * 只影响频率统计的精度，不影响正确性。同一个key并发加载时只会调用一次原函数。
+ * 可选的过期时间从写入时开始算，过期的条目在下次访问时重新计算。
+ */
+public class Memoizer<K, V> implements Function<K, V> {
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int DRAIN_THRESHOLD = 32;
+
+    private final Function<? super K, ? extends V> function;
+    private final long expireAfterWriteNanos;
+    private final ConcurrentHashMap<K, Node<V>> data = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<K> readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicInteger readIndex = new AtomicInteger();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    //下面这些只在持有evictionLock时访问
+    private final LinkedHashMap<K, Node<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<V>> protectedRegion = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch<K> sketch;
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final int protectedCapacity;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public Memoizer(final Function<? super K, ? extends V> theFunction, final int maximumSize) {
+        this(theFunction, maximumSize, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param expireAfterWrite 写入后多久过期，0表示永不过期
+     */
+    public Memoizer(final Function<? super K, ? extends V> theFunction, final int maximumSize,
+                    final long expireAfterWrite, final TimeUnit unit) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        if (expireAfterWrite < 0) {
+            throw new IllegalArgumentException("expireAfterWrite must not be negative: " + expireAfterWrite);
+        }
+        function = theFunction;
+        expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+        windowCapacity = Math.max(1, maximumSize / 100);
+        mainCapacity = Math.max(0, maximumSize - windowCapacity);
+        protectedCapacity = mainCapacity * 4 / 5;
+        sketch = new FrequencySketch<>(maximumSize);
+    }
+
+    @Override
+    public V apply(final K key) {
+        final Node<V> node = data.get(key);
+        if (node != null && !isExpired(node)) {
+            hits.increment();
+            recordRead(key);
+            return node.value;
+        }
+        misses.increment();
+        if (node != null) {
+            data.remove(key, node);
+        }
+        //computeIfAbsent保证同一个key并发加载时原函数只调用一次；只有真正放进去的线程才负责登记到淘汰策略里
+        final Object[] created = new Object[1];
+        final Node<V> loaded = data.computeIfAbsent(key, k -> {
+            final Node<V> fresh = new Node<>(function.apply(k), System.nanoTime());
+            created[0] = fresh;
+            return fresh;
+        });
+        if (loaded == created[0]) {
+            evictionLock.lock();
+            try {
+                drainReadBuffer();
+                //加载完到拿到锁之间这个节点可能已经过期被别的线程换掉了，只登记还在表里的
+                if (data.get(key) == loaded) {
+                    onInsert(key, loaded);
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        } else {
+            recordRead(key);
+        }
+        return loaded.value;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public double hitRate() {
+        final long requests = hits.sum() + misses.sum();
+        return requests == 0 ? 1.0 : (double) hits.sum() / requests;
+    }
+
+    /**
+     * 当前缓存的条目数
+     */
+    public int size() {
+        return data.size();
+    }
+
+    public String toString() {
+        return String.format("Memoizer[size=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.3f]",
+                size(), hitCount(), missCount(), evictionCount(), hitRate());
+    }
+
+    private boolean isExpired(final Node<V> node) {
+        return expireAfterWriteNanos > 0 && System.nanoTime() - node.writeTime >= expireAfterWriteNanos;
+    }
+
+    private void recordRead(final K key) {
+        final int index = readIndex.getAndIncrement();
+        if (index < READ_BUFFER_SIZE) {
+            readBuffer.lazySet(index, key);
+        }
+        //缓冲区满了之后的访问直接丢掉，由抢到锁的线程清空缓冲区
+        if (index >= DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffer() {
+        final int count = Math.min(readIndex.get(), READ_BUFFER_SIZE);
+        for (int i = 0; i < count; i++) {
+            final K key = readBuffer.getAndSet(i, null);
+            if (key != null) {
+                onAccess(key);
+            }
+        }
+        readIndex.set(0);
+    }
+
+    private void onAccess(final K key) {
+        sketch.increment(key);
+        if (window.get(key) != null) {
+            return;
+        }
+        final Node<V> node = probation.remove(key);
+        if (node != null) {
+            //试用区再次被访问，升入保护区，保护区满了就把最久没访问的降回试用区
+            protectedRegion.put(key, node);
+            if (protectedRegion.size() > protectedCapacity) {
+                final Map.Entry<K, Node<V>> demoted = removeEldest(protectedRegion);
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+        } else {
+            protectedRegion.get(key);
+        }
+    }
+
+    private void onInsert(final K key, final Node<V> node) {
+        sketch.increment(key);
+        //同一个key可能还有一个过期了的旧节点留在某个区里
+        window.remove(key);
+        probation.remove(key);
+        protectedRegion.remove(key);
+        window.put(key, node);
+        while (window.size() > windowCapacity) {
+            admit(removeEldest(window));
+        }
+    }
+
+    /**
+     * 窗口区挤出来的候选者和试用区最该淘汰的条目比较频率，高的留下
+     */
+    private void admit(final Map.Entry<K, Node<V>> candidate) {
+        if (probation.size() + protectedRegion.size() < mainCapacity) {
+            probation.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        final Iterator<Map.Entry<K, Node<V>>> victims = (probation.isEmpty() ? protectedRegion : probation)
+                .entrySet().iterator();
+        if (!victims.hasNext()) {
+            evict(candidate);
+            return;
+        }
+        final Map.Entry<K, Node<V>> victim = victims.next();
+        if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+            victims.remove();
+            evict(victim);
+            probation.put(candidate.getKey(), candidate.getValue());
+        } else {
+            evict(candidate);
+        }
+    }
+
+    private void evict(final Map.Entry<K, Node<V>> entry) {
+        if (data.remove(entry.getKey(), entry.getValue())) {
+            evictions.increment();
+        }
+    }
+
+    private static <K, N> Map.Entry<K, N> removeEldest(final LinkedHashMap<K, N> region) {
+        final Iterator<Map.Entry<K, N>> iterator = region.entrySet().iterator();
+        final Map.Entry<K, N> eldest = iterator.next();
+        final Map.Entry<K, N> copy = new AbstractMap.SimpleImmutableEntry<>(eldest);
+        iterator.remove();
+        return copy;
+    }
+
+    private static final class Node<V> {
+        private final V value;
+        private final long writeTime;
+
+        private Node(final V theValue, final long theWriteTime) {
+            value = theValue;
+            writeTime = theWriteTime;
+        }
+    }
+
+    /**
+     * 4行的Count-Min Sketch，每个计数器4位，一个long里放16个，最大计到15
+     */
+    private static final class FrequencySketch<K> {
+        private static final long[] SEEDS = {
+                0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L
+        };
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(final int maximumSize) {
+            //每行的计数器个数取不小于容量的2的幂
+            final int counters = Integer.highestOneBit(Math.max(16, maximumSize - 1)) << 1;
+            table = new long[counters * SEEDS.length / 16];
+            mask = counters - 1;
+            sampleSize = 10 * Math.max(maximumSize, 16);
+        }
+
+        private int frequency(final K key) {
+            final int hash = spread(key.hashCode());
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < SEEDS.length; row++) {
+                frequency = Math.min(frequency, get(row, hash));
+            }
+            return frequency;
+        }
+
+        private void increment(final K key) {
+            final int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int row = 0; row < SEEDS.length; row++) {
+                added |= incrementAt(row, hash);
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private int counterIndex(final int row, final int hash) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return row * (mask + 1) + ((int) h & mask);
+        }
+
+        private int get(final int row, final int hash) {
+            final int index = counterIndex(row, hash);
+            return (int) (table[index >>> 4] >>> ((index & 15) << 2)) & 0xF;
+        }
+
+        private boolean incrementAt(final int row, final int hash) {
+            final int index = counterIndex(row, hash);
+            final int shift = (index & 15) << 2;
+            if (((table[index >>> 4] >>> shift) & 0xF) == 0xF) {
+                return false;
+            }
+            table[index >>> 4] += 1L << shift;
+            return true;
+        }
+
+        /**
+         * 所有计数器减半，旧的热点随时间冷却
+         */
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            }
+            additions /= 2;
+        }
+
+        private static int spread(final int hash) {
+            final int h = hash * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
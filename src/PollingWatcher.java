@@ -0,0 +1,218 @@
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 轮询方式的文件监控器
+ * <p>
+ * 在一些挂载点上(bind mount、FUSE、部分容器的overlay)WatchService根本不会触发，也不会报错。
+ * 这时可以换成这个实现，接口和RecursiveWatcher一样：定时遍历目录树，按(mtime，大小)和上一次的快照比较，得出事件。
+ * <p>
+ * 轮询间隔是自适应的：有变化时间隔减半，空闲时每次放大一半，都限制在[min, max]之间。
+ * 另外还有一个CPU预算：一次扫描花了多少时间，就至少要等 扫描时间/预算 这么久再扫下一次。
+ * 比如10万个文件扫描一次要200ms，预算是5%的话，间隔至少是4秒，不管变化有多频繁。
+ * <p>
+ * 目录只报告新建和删除，目录的mtime变化已经体现在它下面条目的事件里了。
+ * 扫描失败(比如根目录暂时不可访问)或者订阅方抛出异常时下次照常轮询，失败次数和原因用getFailureCount()、getLastFailure()查看。
+ */
+public class PollingWatcher implements FileWatcher {
+    private final Path root;
+    private final long minIntervalNanos;
+    private final long maxIntervalNanos;
+    private final double cpuBudget;
+    private final Consumer<List<FileEvent>> listener;
+    private Map<Path, Stat> snapshot = new HashMap<>();
+    private ScheduledExecutorService scheduler;
+    private volatile long intervalNanos;
+    private volatile long lastScanNanos;
+    private final AtomicLong failures = new AtomicLong();
+    private volatile Exception lastFailure;
+
+    /**
+     * @param cpuBudget 扫描时间占总时间的上限，取值(0, 1]
+     */
+    public PollingWatcher(final Path theRoot, final long minInterval, final long maxInterval, final TimeUnit unit,
+                          final double cpuBudget, final Consumer<List<FileEvent>> theListener) {
+        if (minInterval <= 0 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("Invalid interval range: " + minInterval + ".." + maxInterval);
+        }
+        if (cpuBudget <= 0 || cpuBudget > 1) {
+            throw new IllegalArgumentException("cpuBudget must be in (0, 1]: " + cpuBudget);
+        }
+        root = theRoot.toAbsolutePath().normalize();
+        minIntervalNanos = unit.toNanos(minInterval);
+        maxIntervalNanos = unit.toNanos(maxInterval);
+        this.cpuBudget = cpuBudget;
+        listener = theListener;
+        intervalNanos = minIntervalNanos;
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (scheduler != null) {
+            throw new IllegalStateException("already started");
+        }
+        snapshot = scan();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "polling-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.schedule(this::pollAndDeliver, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 立即扫描一次，返回和上一次快照相比的变化。定时任务也是调用它；没有start()时可以直接调用，方便测试
+     */
+    public synchronized List<FileEvent> poll() throws IOException {
+        final long start = System.nanoTime();
+        final Map<Path, Stat> current = scan();
+        final List<FileEvent> events = diff(snapshot, current);
+        snapshot = current;
+        lastScanNanos = System.nanoTime() - start;
+        adapt(!events.isEmpty());
+        return events;
+    }
+
+    /**
+     * 当前的轮询间隔
+     */
+    public long getInterval(final TimeUnit unit) {
+        return unit.convert(intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 最近一次扫描所用的时间
+     */
+    public long getLastScanTime(final TimeUnit unit) {
+        return unit.convert(lastScanNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 扫描失败和订阅方抛出异常的次数
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * 最近一次失败的原因，从来没失败过时为null
+     */
+    public Exception getLastFailure() {
+        return lastFailure;
+    }
+
+    private void pollAndDeliver() {
+        try {
+            final List<FileEvent> events = poll();
+            //在锁里确认还没有close()再交付，close()返回之后就不会再有事件
+            synchronized (this) {
+                if (scheduler != null && !events.isEmpty()) {
+                    listener.accept(events);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            lastFailure = e;
+        }
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.schedule(this::pollAndDeliver, intervalNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void adapt(final boolean changed) {
+        long next = changed ? intervalNanos / 2 : intervalNanos + intervalNanos / 2;
+        next = Math.max(minIntervalNanos, Math.min(maxIntervalNanos, next));
+        //CPU预算优先于最小间隔
+        intervalNanos = Math.max(next, (long) (lastScanNanos / cpuBudget));
+    }
+
+    private Map<Path, Stat> scan() throws IOException {
+        //按上次的大小预分配，10万个文件时省掉反复扩容
+        final Map<Path, Stat> current = new HashMap<>(snapshot.size() * 4 / 3 + 16);
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                if (!dir.equals(root)) {
+                    current.put(dir, Stat.DIRECTORY);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                current.put(file, new Stat(attrs.lastModifiedTime().toMillis(), attrs.size()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return current;
+    }
+
+    private static List<FileEvent> diff(final Map<Path, Stat> previous, final Map<Path, Stat> current) {
+        final List<FileEvent> events = new ArrayList<>();
+        current.forEach((path, stat) -> {
+            final Stat old = previous.get(path);
+            if (old == null) {
+                events.add(new FileEvent(FileEvent.Kind.CREATE, path));
+            } else if (old.isDirectory() != stat.isDirectory()) {
+                //同名的文件换成了目录，或者反过来
+                events.add(new FileEvent(FileEvent.Kind.DELETE, path));
+                events.add(new FileEvent(FileEvent.Kind.CREATE, path));
+            } else if (old.mtime != stat.mtime || old.size != stat.size) {
+                events.add(new FileEvent(FileEvent.Kind.MODIFY, path));
+            }
+        });
+        previous.keySet().forEach(path -> {
+            if (!current.containsKey(path)) {
+                events.add(new FileEvent(FileEvent.Kind.DELETE, path));
+            }
+        });
+        //HashMap没有顺序，按路径排一下，保证目录的事件在它下面条目的事件之前
+        events.sort(Comparator.comparing(FileEvent::getPath));
+        return events;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private static final class Stat {
+        private static final Stat DIRECTORY = new Stat(-1, -1);
+
+        private final long mtime;
+        private final long size;
+
+        private Stat(final long theMtime, final long theSize) {
+            mtime = theMtime;
+            size = theSize;
+        }
+
+        private boolean isDirectory() {
+            return this == DIRECTORY;
+        }
+    }
+}
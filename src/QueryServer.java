@@ -0,0 +1,197 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * 把Demo04到Demo10里的名字和人员的操作做成本地HTTP服务
+ * <p>
+ * 用的是JDK自带的com.sun.net.httpserver，纯文本返回，每行一个结果：
+ * GET /names?prefix=N          以N开头的名字(Demo04)
+ * GET /names/first?prefix=S    第一个以S开头的名字，没有时返回404(Demo06)
+ * GET /names/longest           最长的名字(Demo07)
+ * GET /people/sorted?by=age    按年龄或者名字(by=name)排序(Demo09)
+ * GET /people/grouped          按年龄分组的名字(Demo10)
+ * <p>
+ * 项目的语言级别是Java 8，没有虚拟线程。这些查询都是纯计算，不会阻塞，所以请求在一个和CPU核数相同的固定线程池上执行；
+ * 连接本身由HttpServer的选择器线程管理，空闲的长连接不占用工作线程，上万个并发连接也只需要这几个线程。
+ * 压测用LoadGenerator。
+ */
+public class QueryServer {
+    private static final String MAX_IDLE_CONNECTIONS = "sun.net.httpserver.maxIdleConnections";
+    private static final List<String> FRIENDS =
+            Arrays.asList("Brian", "Nate", "Neal", "Raju", "Sara", "Scott");
+    private static final List<Person> PEOPLE = Arrays.asList(
+            new Person("John", 20),
+            new Person("Sara", 21),
+            new Person("Jane", 21),
+            new Person("Greg", 35));
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    //前缀的Predicate会被反复用到，缓存起来
+    private final Memoizer<String, Predicate<String>> startsWith = new Memoizer<>(Demo05::checkIfStartWith, 256);
+
+    public QueryServer(final int port, final int backlog) throws IOException {
+        //HttpServer默认最多保留200个空闲的长连接，多出来的响应完就被关掉；这个属性在第一次创建HttpServer时读取，要在那之前设置
+        if (System.getProperty(MAX_IDLE_CONNECTIONS) == null) {
+            System.setProperty(MAX_IDLE_CONNECTIONS, "16384");
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), backlog);
+        final AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            final Thread thread = new Thread(runnable, "query-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/names", this::names);
+        server.createContext("/people", this::people);
+    }
+
+    public static void main(String[] args) throws IOException {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        new QueryServer(port, 4096).start();
+        System.out.println("Query server listening on http://127.0.0.1:" + port);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void names(final HttpExchange exchange) throws IOException {
+        final String path = exchange.getRequestURI().getPath();
+        final String prefix = query(exchange).getOrDefault("prefix", "");
+        switch (path) {
+            case "/names":
+                respond(exchange, 200, FRIENDS.stream()
+                        .filter(startsWith.apply(prefix))
+                        .collect(Collectors.joining("\n")));
+                break;
+            case "/names/first":
+                respond(exchange, FRIENDS.stream()
+                        .filter(startsWith.apply(prefix))
+                        .findFirst());
+                break;
+            case "/names/longest":
+                respond(exchange, FRIENDS.stream()
+                        .reduce((name1, name2) -> name1.length() >= name2.length() ? name1 : name2));
+                break;
+            default:
+                respond(exchange, 404, "Not found: " + path);
+                break;
+        }
+    }
+
+    private void people(final HttpExchange exchange) throws IOException {
+        final String path = exchange.getRequestURI().getPath();
+        switch (path) {
+            case "/people/sorted":
+                final Comparator<Person> comparator = "name".equals(query(exchange).get("by"))
+                        ? Comparator.comparing(Person::getName)
+                        : Comparator.comparing(Person::getAge).thenComparing(Person::getName);
+                respond(exchange, 200, PEOPLE.stream()
+                        .sorted(comparator)
+                        .map(Person::toString)
+                        .collect(Collectors.joining("\n")));
+                break;
+            case "/people/grouped":
+                final Map<Integer, List<String>> byAge = PEOPLE.stream()
+                        .collect(Collectors.groupingBy(Person::getAge, TreeMap::new,
+                                Collectors.mapping(Person::getName, Collectors.toList())));
+                respond(exchange, 200, byAge.entrySet().stream()
+                        .map(entry -> entry.getKey() + ": " + String.join(", ", entry.getValue()))
+                        .collect(Collectors.joining("\n")));
+                break;
+            default:
+                respond(exchange, 404, "Not found: " + path);
+                break;
+        }
+    }
+
+    /**
+     * 和Demo09里的Person一样。那个是Demo09.java里的非公开类，编译QueryServer时找不到它的源文件，所以这里单独定义
+     */
+    private static final class Person {
+        private final String name;
+        private final int age;
+
+        private Person(final String theName, final int theAge) {
+            name = theName;
+            age = theAge;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getAge() {
+            return age;
+        }
+
+        public String toString() {
+            return String.format("%s - %d", name, age);
+        }
+    }
+
+    private static Map<String, String> query(final HttpExchange exchange) throws IOException {
+        final Map<String, String> params = new HashMap<>();
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            final int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static void respond(final HttpExchange exchange, final Optional<String> result)
+            throws IOException {
+        if (result.isPresent()) {
+            respond(exchange, 200, result.get());
+        } else {
+            respond(exchange, 404, "No match");
+        }
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String body)
+            throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        //给出长度才能保持长连接
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
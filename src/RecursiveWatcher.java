@@ -0,0 +1,261 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 递归监控目录树，并对事件做防抖合并
+ * <p>
+ * Demo12只给src注册了ENTRY_MODIFY，并且只poll一次。长期运行的话会有这些问题：
+ * 1、新建的子目录不会被监控——这里在收到目录的ENTRY_CREATE时自动注册它和它下面的所有子目录，
+ * 注册之前已经在里面建好的文件也补发CREATE事件；
+ * 2、OVERFLOW说明事件丢了——这里重新扫描这个目录下有没有漏注册的子目录，再发一个OVERFLOW事件让订阅方去重扫；
+ * 3、编辑器保存文件时会连续触发很多事件——同一个路径上的事件在防抖窗口内合并成一个(见FileEvent.coalesce())，
+ * 窗口内没有新事件了才把这一批交出去，但一批最多攒4个窗口的时间，事件一直不停也不会饿死订阅方。
+ * <p>
+ * 监听和交付在两个专门的线程上：监听线程只负责取事件和合并，订阅方处理得慢也不会耽误取事件。
+ * 新建的子目录注册失败时不会中断监控，失败次数和最近一次的原因用getFailureCount()、getLastFailure()查看。
+ */
+public class RecursiveWatcher implements FileWatcher {
+    private static final WatchEvent.Kind<?>[] KINDS = {
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE
+    };
+    private static final int MAX_DELAY_WINDOWS = 4;
+
+    private final Path root;
+    private final long debounceNanos;
+    private final Consumer<List<FileEvent>> listener;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Map<Path, FileEvent.Kind> pending = new LinkedHashMap<>();
+    private WatchService watchService;
+    private Thread watchThread;
+    private ExecutorService delivery;
+    //交付时持有，close()拿到它之后就不会再有批次交给订阅方
+    private final Object deliveryLock = new Object();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile boolean running;
+    private volatile Exception lastFailure;
+
+    public RecursiveWatcher(final Path theRoot, final long debounce, final TimeUnit unit,
+                            final Consumer<List<FileEvent>> theListener) {
+        root = theRoot.toAbsolutePath().normalize();
+        debounceNanos = unit.toNanos(debounce);
+        listener = theListener;
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("already started");
+        }
+        watchService = root.getFileSystem().newWatchService();
+        registerAll(root, null);
+        delivery = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "watch-delivery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        watchThread = new Thread(this::watchLoop, "recursive-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    /**
+     * 当前注册了的目录数
+     */
+    public int watchedDirectories() {
+        return keys.size();
+    }
+
+    /**
+     * 注册子目录失败的次数
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * 最近一次失败的原因，从来没失败过时为null
+     */
+    public Exception getLastFailure() {
+        return lastFailure;
+    }
+
+    private void watchLoop() {
+        long firstEventAt = 0;
+        long lastEventAt = 0;
+        try {
+            while (running) {
+                final WatchKey key;
+                if (pending.isEmpty()) {
+                    key = watchService.take();
+                } else {
+                    final long now = System.nanoTime();
+                    final long deadline = Math.min(lastEventAt + debounceNanos,
+                            firstEventAt + MAX_DELAY_WINDOWS * debounceNanos);
+                    if (now - deadline >= 0) {
+                        flush();
+                        continue;
+                    }
+                    key = watchService.poll(deadline - now, TimeUnit.NANOSECONDS);
+                }
+                if (key == null) {
+                    continue;
+                }
+                final boolean wasEmpty = pending.isEmpty();
+                process(key);
+                if (!pending.isEmpty()) {
+                    lastEventAt = System.nanoTime();
+                    if (wasEmpty) {
+                        firstEventAt = lastEventAt;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            //close()了，正常退出
+        }
+    }
+
+    private void process(final WatchKey key) {
+        final Path dir = keys.get(key);
+        if (dir == null) {
+            key.cancel();
+            return;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                //事件丢了，不知道具体变了什么，补注册漏掉的子目录，再让订阅方自己重扫这个目录
+                registerAllQuietly(dir, null);
+                add(dir, FileEvent.Kind.OVERFLOW);
+                continue;
+            }
+            final Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                add(path, FileEvent.Kind.CREATE);
+                if (Files.isDirectory(path)) {
+                    registerAllQuietly(path, path);
+                }
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                add(path, FileEvent.Kind.DELETE);
+            } else {
+                add(path, FileEvent.Kind.MODIFY);
+            }
+        }
+        if (!key.reset()) {
+            //目录被删掉或者不可访问了
+            keys.remove(key);
+        }
+    }
+
+    private void add(final Path path, final FileEvent.Kind kind) {
+        final FileEvent.Kind merged = FileEvent.coalesce(pending.get(path), kind);
+        if (merged == null) {
+            pending.remove(path);
+        } else {
+            pending.put(path, merged);
+        }
+    }
+
+    private void flush() {
+        final List<FileEvent> batch = new ArrayList<>(pending.size());
+        pending.forEach((path, kind) -> batch.add(new FileEvent(kind, path)));
+        pending.clear();
+        delivery.execute(() -> {
+            synchronized (deliveryLock) {
+                //close()之前排进队列的批次直接丢掉
+                if (running) {
+                    listener.accept(batch);
+                }
+            }
+        });
+    }
+
+    /**
+     * 注册dir及它下面所有的子目录。created不为null时说明这是一个新建的目录，
+     * 注册之前已经在里面建好的条目收不到事件了，给它们补发CREATE
+     */
+    private void registerAll(final Path dir, final Path created) throws IOException {
+        final Set<Path> registered = new HashSet<>(keys.values());
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path subDir, final BasicFileAttributes attrs)
+                    throws IOException {
+                if (created != null && !subDir.equals(created)) {
+                    add(subDir, FileEvent.Kind.CREATE);
+                }
+                if (!registered.contains(subDir)) {
+                    keys.put(subDir.register(watchService, KINDS), subDir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (created != null) {
+                    add(file, FileEvent.Kind.CREATE);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                //遍历过程中被删掉的条目忽略掉，后面会收到它的DELETE
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void registerAllQuietly(final Path dir, final Path created) {
+        try {
+            registerAll(dir, created);
+        } catch (NoSuchFileException e) {
+            //目录已经又被删掉了
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            lastFailure = e;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        //等正在交付的批次结束；在订阅方里调用close()时锁是可重入的
+        synchronized (deliveryLock) {
+            running = false;
+        }
+        watchService.close();
+        try {
+            watchThread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delivery.shutdownNow();
+    }
+}
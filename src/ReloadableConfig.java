@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 可热加载的配置快照
+ * <p>
+ * Demo12监控src/test.txt只是为了打印出变化的文件名，实际上我们要的是文件一变就把它重新加载成配置。
+ * 这里在单独的线程上解析、校验文件，成功后通过AtomicReference整个换掉快照：
+ * 读配置的线程只做一次volatile读，不会被阻塞，也不会看到加载了一半的状态。
+ * 解析或校验失败时保留旧的快照，记下失败原因，用getFailureCount()、getLastFailure()查看。
+ * <p>
+ * 快照对象本身必须是不可变的，比如用Collections.unmodifiableMap()包起来的Map。
+ * 放在监控器后面使用：new RecursiveWatcher(dir, 200, MILLISECONDS, config)。
+ */
+public class ReloadableConfig<T> implements Consumer<List<FileEvent>>, AutoCloseable {
+    /**
+     * 把文件解析成配置对象
+     */
+    @FunctionalInterface
+    public interface Parser<T> {
+        T parse(Path file) throws IOException;
+    }
+
+    private final Path file;
+    private final Parser<T> parser;
+    private final Predicate<? super T> validator;
+    private final AtomicReference<T> snapshot = new AtomicReference<>();
+    private final AtomicBoolean reloadPending = new AtomicBoolean();
+    private final ExecutorService reloader;
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastReloadNanos;
+    private volatile Exception lastFailure;
+
+    public ReloadableConfig(final Path theFile, final Parser<T> theParser, final Predicate<? super T> theValidator) {
+        file = theFile.toAbsolutePath().normalize();
+        parser = theParser;
+        validator = theValidator;
+        reloader = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "config-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 同步加载第一份快照，失败时直接抛出，没有可用的配置就不应该继续启动
+     */
+    public ReloadableConfig<T> load() throws IOException {
+        final T value = parser.parse(file);
+        if (!validator.test(value)) {
+            throw new IllegalArgumentException("Invalid config: " + file);
+        }
+        snapshot.set(value);
+        return this;
+    }
+
+    /**
+     * 当前的快照，热路径上调用，不会阻塞
+     */
+    public T get() {
+        return snapshot.get();
+    }
+
+    @Override
+    public void accept(final List<FileEvent> events) {
+        for (FileEvent event : events) {
+            if (affects(event)) {
+                requestReload();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 请求重新加载。已经有一次在排队的话不再重复排队，排队中的那次会读到最新的文件
+     */
+    public void requestReload() {
+        if (reloadPending.compareAndSet(false, true)) {
+            reloader.execute(this::reload);
+        }
+    }
+
+    private boolean affects(final FileEvent event) {
+        if (event.getKind() == FileEvent.Kind.OVERFLOW) {
+            return file.startsWith(event.getPath());
+        }
+        return event.getKind() != FileEvent.Kind.DELETE && event.getPath().equals(file);
+    }
+
+    private void reload() {
+        reloadPending.set(false);
+        final long start = System.nanoTime();
+        try {
+            final T value = parser.parse(file);
+            if (!validator.test(value)) {
+                throw new IllegalArgumentException("Invalid config: " + file);
+            }
+            snapshot.set(value);
+            reloads.incrementAndGet();
+            lastReloadNanos = System.nanoTime() - start;
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            lastFailure = e;
+        }
+    }
+
+    /**
+     * 成功重新加载的次数，不含load()
+     */
+    public long getReloadCount() {
+        return reloads.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * 最近一次成功重新加载所用的时间，包括解析和校验
+     */
+    public long getLastReloadTime(final TimeUnit unit) {
+        return unit.convert(lastReloadNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 最近一次失败的原因，从来没失败过时为null
+     */
+    public Exception getLastFailure() {
+        return lastFailure;
+    }
+
+    @Override
+    public void close() {
+        reloader.shutdown();
+    }
+}
@@ -0,0 +1,553 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 名字+年龄这类记录(Demo09的Person、Demo10的Student)的二进制快照
+ * <p>
+ * 启动时从文本解析几百万条记录要很久，快照把它们存成可以直接内存映射的列式格式，打开时只读文件头，
+ * 1000万条记录也是毫秒级就能开始查询，用到哪一页操作系统才读哪一页。
+ * 文件格式(版本1，小端)：
+ * <pre>
+ * 文件头 40字节：魔数"FPSN" | 版本(2) | 文件头长度(2) | 记录数(4) | 保留(4) | 名字区偏移(8) | 偏移表偏移(8) | CRC32(4) | 保留(4)
+ * 年龄区：每条记录1个无符号字节
+ * 名字区：每个名字是变长整数表示的字节数加UTF-8字节
+ * 偏移表：每条记录4字节，是它的名字在名字区里的位置，按4字节对齐
+ * </pre>
+ * CRC32覆盖文件头之后的所有内容。打开时只检查文件头和长度，完整的校验要扫描整个文件，需要时调用verify()。
+ * <p>
+ * 快照之后的修改(add/set/remove)追加到同目录下的"快照文件名.log"里，每条日志有自己的CRC32；
+ * 打开时重放日志，末尾写了一半的日志(进程在写入时退出)会被截掉。日志头里记着对应快照的CRC，
+ * 快照被替换之后旧的日志直接丢弃。compact()把当前内容写成新的快照并清空日志。
+ * <p>
+ * 记录用下标访问，删除的记录留下空位，下标不会变。快照部分的读取可以并发，修改方法之间是同步的，
+ * 但修改和读取不能同时进行。整个快照文件要映射成一个MappedByteBuffer，所以不能超过2GB。
+ */
+public final class SnapshotStore<T> implements AutoCloseable {
+    /**
+     * 记录和名字、年龄之间的转换
+     */
+    public static final class Schema<T> {
+        private final Function<? super T, String> name;
+        private final ToIntFunction<? super T> age;
+        private final BiFunction<String, Integer, ? extends T> factory;
+
+        private Schema(final Function<? super T, String> theName, final ToIntFunction<? super T> theAge,
+                       final BiFunction<String, Integer, ? extends T> theFactory) {
+            name = theName;
+            age = theAge;
+            factory = theFactory;
+        }
+
+        /**
+         * 比如Schema.of(Person::getName, Person::getAge, Person::new)
+         */
+        public static <T> Schema<T> of(final Function<? super T, String> name, final ToIntFunction<? super T> age,
+                                       final BiFunction<String, Integer, ? extends T> factory) {
+            return new Schema<>(name, age, factory);
+        }
+    }
+
+    private static final int SNAPSHOT_MAGIC = 0x4E535046; //"FPSN"
+    private static final int LOG_MAGIC = 0x474C5046; //"FPLG"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int LOG_HEADER_SIZE = 16;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final byte ADD = 1;
+    private static final byte SET = 2;
+    private static final byte REMOVE = 3;
+
+    private final Path snapshotPath;
+    private final Path logPath;
+    private final Schema<T> schema;
+    private final FileChannel log;
+    private MappedByteBuffer buffer;
+    private int count;
+    private int namesOffset;
+    private int offsetsOffset;
+    private int crc;
+    //快照之后的修改，下标小于count的是对快照的修改，之后的是新加的
+    private final Map<Integer, T> changed = new HashMap<>();
+    private final List<T> added = new ArrayList<>();
+    private final BitSet removed = new BitSet();
+
+    private SnapshotStore(final Path theSnapshotPath, final Schema<T> theSchema) throws IOException {
+        snapshotPath = theSnapshotPath;
+        logPath = theSnapshotPath.resolveSibling(theSnapshotPath.getFileName() + ".log");
+        schema = theSchema;
+        map();
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            replay();
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 打开快照并重放它的日志
+     */
+    public static <T> SnapshotStore<T> open(final Path snapshot, final Schema<T> schema) throws IOException {
+        return new SnapshotStore<>(snapshot, schema);
+    }
+
+    /**
+     * 把records写成快照文件，替换已有的文件。年龄必须在0到255之间
+     */
+    public static <T> void write(final Path snapshot, final Schema<T> schema, final List<? extends T> records)
+            throws IOException {
+        write(snapshot, records.size(),
+                index -> schema.name.apply(records.get(index)),
+                index -> schema.age.applyAsInt(records.get(index)));
+    }
+
+    /**
+     * 包括已经删除的空位在内的记录个数，下标的范围是[0, size())
+     */
+    public int size() {
+        return count + added.size();
+    }
+
+    /**
+     * 没有删除的记录个数
+     */
+    public int liveCount() {
+        return size() - removed.cardinality();
+    }
+
+    public boolean isRemoved(final int index) {
+        checkIndex(index);
+        return removed.get(index);
+    }
+
+    /**
+     * 已经删除的记录返回null
+     */
+    public T get(final int index) {
+        checkIndex(index);
+        if (removed.get(index)) {
+            return null;
+        }
+        final T record = overlay(index);
+        return record != null ? record : schema.factory.apply(snapshotName(index), snapshotAge(index));
+    }
+
+    public String getName(final int index) {
+        checkLive(index);
+        final T record = overlay(index);
+        return record != null ? schema.name.apply(record) : snapshotName(index);
+    }
+
+    /**
+     * 没有改过的记录直接从年龄区读，不会创建对象
+     */
+    public int getAge(final int index) {
+        checkLive(index);
+        final T record = overlay(index);
+        return record != null ? schema.age.applyAsInt(record) : snapshotAge(index);
+    }
+
+    /**
+     * 所有没有删除的记录，按下标顺序。可以用parallel()并行处理
+     */
+    public Stream<T> stream() {
+        return liveIndexes().mapToObj(this::get);
+    }
+
+    /**
+     * 所有没有删除的记录的年龄，不创建记录对象
+     */
+    public IntStream ages() {
+        return liveIndexes().map(this::getAge);
+    }
+
+    public synchronized int add(final T record) throws IOException {
+        final int index = size();
+        append(ADD, index, record);
+        added.add(record);
+        return index;
+    }
+
+    public synchronized void set(final int index, final T record) throws IOException {
+        checkLive(index);
+        append(SET, index, record);
+        apply(SET, index, record);
+    }
+
+    public synchronized void remove(final int index) throws IOException {
+        checkLive(index);
+        append(REMOVE, index, null);
+        removed.set(index);
+    }
+
+    /**
+     * 把日志刷到磁盘上
+     */
+    public void sync() throws IOException {
+        log.force(false);
+    }
+
+    /**
+     * 重新计算CRC32并和文件头里的比较，要读整个快照文件
+     */
+    public void verify() throws IOException {
+        final ByteBuffer body = buffer.duplicate();
+        body.position(HEADER_SIZE);
+        final CRC32 checksum = new CRC32();
+        checksum.update(body);
+        if ((int) checksum.getValue() != crc) {
+            throw new IOException("Checksum mismatch in snapshot " + snapshotPath);
+        }
+    }
+
+    /**
+     * 把当前内容写成新的快照替换掉旧的，然后清空日志。删除留下的空位会被去掉，所以之后的下标会变
+     */
+    public synchronized void compact() throws IOException {
+        final int[] live = liveIndexes().toArray();
+        //先替换快照再重置日志，中间退出的话旧日志的CRC对不上新快照，下次打开时会被丢弃
+        write(snapshotPath, live.length, index -> getName(live[index]), index -> getAge(live[index]));
+        map();
+        changed.clear();
+        added.clear();
+        removed.clear();
+        resetLog();
+    }
+
+    @Override
+    public void close() throws IOException {
+        //Java 8没有办法主动解除映射，映射在buffer被回收时释放
+        log.close();
+    }
+
+    private IntStream liveIndexes() {
+        final IntStream indexes = IntStream.range(0, size());
+        return removed.isEmpty() ? indexes : indexes.filter(index -> !removed.get(index));
+    }
+
+    private T overlay(final int index) {
+        if (index >= count) {
+            return added.get(index - count);
+        }
+        return changed.isEmpty() ? null : changed.get(index);
+    }
+
+    private int snapshotAge(final int index) {
+        return buffer.get(HEADER_SIZE + index) & 0xFF;
+    }
+
+    private String snapshotName(final int index) {
+        int position = namesOffset + buffer.getInt(offsetsOffset + index * Integer.BYTES);
+        int length = 0;
+        byte b;
+        int shift = 0;
+        do {
+            b = buffer.get(position++);
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        final byte[] bytes = new byte[length];
+        final ByteBuffer name = buffer.duplicate();
+        name.position(position);
+        name.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+    }
+
+    private void checkLive(final int index) {
+        checkIndex(index);
+        if (removed.get(index)) {
+            throw new IllegalArgumentException("Record " + index + " was removed");
+        }
+    }
+
+    private void apply(final byte op, final int index, final T record) {
+        if (op == ADD) {
+            added.add(record);
+        } else if (op == REMOVE) {
+            removed.set(index);
+        } else if (index >= count) {
+            added.set(index - count, record);
+        } else {
+            changed.put(index, record);
+        }
+    }
+
+    /**
+     * 映射快照文件并检查文件头
+     */
+    private void map() throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a snapshot file: " + snapshotPath);
+            }
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.getInt(0) != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a snapshot file: " + snapshotPath);
+            }
+            if (mapped.getShort(4) != VERSION) {
+                throw new IOException("Unsupported snapshot version " + mapped.getShort(4) + ": " + snapshotPath);
+            }
+            final int theCount = mapped.getInt(8);
+            final long theNamesOffset = mapped.getLong(16);
+            final long theOffsetsOffset = mapped.getLong(24);
+            if (theCount < 0 || theNamesOffset != HEADER_SIZE + (long) theCount
+                    || theOffsetsOffset < theNamesOffset
+                    || theOffsetsOffset + (long) theCount * Integer.BYTES != size) {
+                throw new IOException("Truncated or corrupt snapshot: " + snapshotPath);
+            }
+            buffer = mapped;
+            count = theCount;
+            namesOffset = (int) theNamesOffset;
+            offsetsOffset = (int) theOffsetsOffset;
+            crc = mapped.getInt(32);
+        }
+    }
+
+    private void replay() throws IOException {
+        final long size = log.size();
+        if (size < LOG_HEADER_SIZE) {
+            resetLog();
+            return;
+        }
+        final ByteBuffer entries = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        while (entries.hasRemaining() && log.read(entries, entries.position()) >= 0) {
+            //一直读到满
+        }
+        entries.flip();
+        if (entries.getInt() != LOG_MAGIC || entries.getShort() != VERSION) {
+            throw new IOException("Not a snapshot log: " + logPath);
+        }
+        entries.getShort();
+        if (entries.getInt() != crc) {
+            //日志是旧快照的，内容已经在当前快照里了
+            resetLog();
+            return;
+        }
+        entries.getInt();
+        final CRC32 checksum = new CRC32();
+        long valid = entries.position();
+        while (entries.remaining() >= Integer.BYTES) {
+            final int length = entries.getInt();
+            if (length <= 0 || entries.remaining() < length + Integer.BYTES) {
+                break;
+            }
+            final ByteBuffer body = entries.slice();
+            body.limit(length);
+            checksum.reset();
+            checksum.update(body.duplicate());
+            entries.position(entries.position() + length);
+            if ((int) checksum.getValue() != entries.getInt()) {
+                break;
+            }
+            replayEntry(body.order(ByteOrder.LITTLE_ENDIAN));
+            valid = entries.position();
+        }
+        //截掉末尾写了一半的日志
+        log.truncate(valid);
+        log.position(valid);
+    }
+
+    private void replayEntry(final ByteBuffer body) throws IOException {
+        final byte op = body.get();
+        final int index = body.getInt();
+        final boolean valid = op == ADD ? index == size()
+                : (op == SET || op == REMOVE) && index >= 0 && index < size() && !removed.get(index);
+        if (!valid) {
+            throw new IOException("Corrupt log entry for record " + index + ": " + logPath);
+        }
+        T record = null;
+        if (op != REMOVE) {
+            final int age = body.get() & 0xFF;
+            final byte[] name = new byte[readVarInt(body)];
+            body.get(name);
+            record = schema.factory.apply(new String(name, StandardCharsets.UTF_8), age);
+        }
+        apply(op, index, record);
+    }
+
+    private void append(final byte op, final int index, final T record) throws IOException {
+        final byte[] name = record == null ? new byte[0] : schema.name.apply(record).getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer entry = ByteBuffer.allocate(4 + 1 + 4 + 1 + 5 + name.length + 4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        entry.putInt(0);
+        entry.put(op);
+        entry.putInt(index);
+        if (record != null) {
+            entry.put((byte) checkAge(schema.age.applyAsInt(record)));
+            writeVarInt(entry, name.length);
+            entry.put(name);
+        }
+        final int length = entry.position() - Integer.BYTES;
+        entry.putInt(0, length);
+        final CRC32 checksum = new CRC32();
+        checksum.update(entry.array(), Integer.BYTES, length);
+        entry.putInt((int) checksum.getValue());
+        entry.flip();
+        writeFully(log, entry);
+    }
+
+    private void resetLog() throws IOException {
+        log.truncate(0);
+        final ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOG_MAGIC).putShort(VERSION).putShort((short) 0).putInt(crc).putInt(0);
+        header.flip();
+        log.position(0);
+        writeFully(log, header);
+    }
+
+    private static void write(final Path snapshot, final int count, final IntFunction<String> names,
+                              final IntUnaryOperator ages) throws IOException {
+        //先写到临时文件再替换，写到一半失败不会破坏原来的快照
+        final Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try {
+            writeTo(temp, count, names, ages);
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeTo(final Path snapshot, final int count, final IntFunction<String> names,
+                                final IntUnaryOperator ages) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            final CRC32 checksum = new CRC32();
+            channel.position(HEADER_SIZE);
+            for (int i = 0; i < count; i++) {
+                if (!out.hasRemaining()) {
+                    flush(channel, out, checksum);
+                }
+                out.put((byte) checkAge(ages.applyAsInt(i)));
+            }
+            //名字边写边记下偏移，偏移表放在最后
+            final int[] offsets = new int[count];
+            long namesLength = 0;
+            for (int i = 0; i < count; i++) {
+                final byte[] name = names.apply(i).getBytes(StandardCharsets.UTF_8);
+                offsets[i] = (int) namesLength;
+                namesLength += varIntSize(name.length) + name.length;
+                if (namesLength > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Names do not fit in a 2GB snapshot");
+                }
+                if (out.remaining() < 5 + name.length) {
+                    flush(channel, out, checksum);
+                }
+                writeVarInt(out, name.length);
+                if (name.length <= out.remaining()) {
+                    out.put(name);
+                } else {
+                    //比缓冲区还长的名字直接写
+                    flush(channel, out, checksum);
+                    final ByteBuffer large = ByteBuffer.wrap(name);
+                    checksum.update(large.duplicate());
+                    writeFully(channel, large);
+                }
+            }
+            final long namesOffset = HEADER_SIZE + (long) count;
+            final long padding = (Integer.BYTES - (namesOffset + namesLength) % Integer.BYTES) % Integer.BYTES;
+            final long offsetsOffset = namesOffset + namesLength + padding;
+            if (offsetsOffset + (long) count * Integer.BYTES > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Snapshot larger than 2GB: " + count + " records");
+            }
+            for (int i = 0; i < padding; i++) {
+                if (!out.hasRemaining()) {
+                    flush(channel, out, checksum);
+                }
+                out.put((byte) 0);
+            }
+            for (int offset : offsets) {
+                if (out.remaining() < Integer.BYTES) {
+                    flush(channel, out, checksum);
+                }
+                out.putInt(offset);
+            }
+            flush(channel, out, checksum);
+            //最后写文件头
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(SNAPSHOT_MAGIC).putShort(VERSION).putShort((short) HEADER_SIZE)
+                    .putInt(count).putInt(0)
+                    .putLong(namesOffset).putLong(offsetsOffset)
+                    .putInt((int) checksum.getValue()).putInt(0);
+            header.flip();
+            channel.position(0);
+            writeFully(channel, header);
+            channel.force(true);
+        }
+    }
+
+    private static void flush(final FileChannel channel, final ByteBuffer out, final CRC32 checksum)
+            throws IOException {
+        out.flip();
+        checksum.update(out.duplicate());
+        writeFully(channel, out);
+        out.clear();
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int checkAge(final int age) {
+        if (age < 0 || age > 255) {
+            throw new IllegalArgumentException("Age out of range [0, 255]: " + age);
+        }
+        return age;
+    }
+
+    private static void writeVarInt(final ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static int varIntSize(final int value) {
+        return value < 1 << 7 ? 1 : value < 1 << 14 ? 2 : value < 1 << 21 ? 3 : value < 1 << 28 ? 4 : 5;
+    }
+
+    private static int readVarInt(final ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
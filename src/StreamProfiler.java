@@ -0,0 +1,250 @@
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+/**
+ * 流水线各阶段的性能统计
+ * <p>
+ * 像Demo01里filter→map→reduce、Demo10里groupingBy→mapping这样的链式调用，看不出时间花在了哪一步。
+ * 这里不包装Stream本身，而是包装传给各个阶段的lambda：
+ * <pre>
+ * final StreamProfiler profiler = StreamProfiler.of("discount");
+ * prices.stream()
+ *         .filter(profiler.filter("over20", price -&gt; price.compareTo(BigDecimal.valueOf(20)) &gt; 0))
+ *         .map(profiler.map("discount", price -&gt; price.multiply(BigDecimal.valueOf(0.9))))
+ *         ...
+ * </pre>
+ * 记录每个阶段进来和出去的元素个数、选择率以及累计耗时，最后用summary()输出。
+ * 没有打开时(默认关闭，用-Dfp.profile=true打开)各个方法原样返回传进来的lambda，没有任何包装，也就没有开销。
+ * <p>
+ * 打开之后每次调用阶段的lambda还会发出一个JFR事件fp.StreamStage(Java 8从8u262起自带JFR)，
+ * 默认只记录超过1ms的调用，可以在JFR的配置里调低阈值；录制时能和GC、锁竞争这些事件放在同一条时间线上看。
+ * 累计耗时只统计这个lambda本身，不包括下游阶段；并行流里是所有线程的时间之和。
+ */
+public final class StreamProfiler {
+    private static final boolean ENABLED_BY_DEFAULT = Boolean.getBoolean("fp.profile");
+
+    private final String pipeline;
+    private final boolean enabled;
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    private StreamProfiler(final String thePipeline, final boolean isEnabled) {
+        pipeline = thePipeline;
+        enabled = isEnabled;
+    }
+
+    /**
+     * 是否打开由系统属性fp.profile决定
+     */
+    public static StreamProfiler of(final String pipeline) {
+        return new StreamProfiler(pipeline, ENABLED_BY_DEFAULT);
+    }
+
+    public static StreamProfiler of(final String pipeline, final boolean enabled) {
+        return new StreamProfiler(pipeline, enabled);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public <T> Predicate<T> filter(final String name, final Predicate<T> predicate) {
+        if (!enabled) {
+            return predicate;
+        }
+        final Stage stage = stage(name, "filter");
+        return element -> {
+            final StageEvent event = stage.begin();
+            final long start = System.nanoTime();
+            final boolean result = predicate.test(element);
+            stage.record(start, event, 1, result ? 1 : 0);
+            return result;
+        };
+    }
+
+    public <T, R> Function<T, R> map(final String name, final Function<T, R> mapper) {
+        if (!enabled) {
+            return mapper;
+        }
+        final Stage stage = stage(name, "map");
+        return element -> {
+            final StageEvent event = stage.begin();
+            final long start = System.nanoTime();
+            final R result = mapper.apply(element);
+            stage.record(start, event, 1, 1);
+            return result;
+        };
+    }
+
+    /**
+     * 出去的元素个数在下游真正消费子流的时候才统计，耗时只包括创建子流
+     */
+    public <T, R> Function<T, Stream<R>> flatMap(final String name, final Function<T, Stream<R>> mapper) {
+        if (!enabled) {
+            return mapper;
+        }
+        final Stage stage = stage(name, "flatMap");
+        return element -> {
+            final StageEvent event = stage.begin();
+            final long start = System.nanoTime();
+            final Stream<R> result = mapper.apply(element);
+            stage.record(start, event, 1, 0);
+            return result == null ? null : result.peek(out -> stage.out.increment());
+        };
+    }
+
+    /**
+     * 排序看不到元素本身，进来的个数记的是比较的次数
+     */
+    public <T> Comparator<T> sorted(final String name, final Comparator<T> comparator) {
+        if (!enabled) {
+            return comparator;
+        }
+        final Stage stage = stage(name, "sorted");
+        return (first, second) -> {
+            final StageEvent event = stage.begin();
+            final long start = System.nanoTime();
+            final int result = comparator.compare(first, second);
+            stage.record(start, event, 1, 0);
+            return result;
+        };
+    }
+
+    /**
+     * 统计累加器，出去的个数是合并后结果的个数(并行流里每个子结果算一个)
+     */
+    public <T, A, R> Collector<T, A, R> collect(final String name, final Collector<T, A, R> collector) {
+        if (!enabled) {
+            return collector;
+        }
+        final Stage stage = stage(name, "collect");
+        final BiConsumer<A, T> accumulator = collector.accumulator();
+        final Function<A, R> finisher = collector.finisher();
+        return Collector.of(collector.supplier(),
+                (container, element) -> {
+                    final StageEvent event = stage.begin();
+                    final long start = System.nanoTime();
+                    accumulator.accept(container, element);
+                    stage.record(start, event, 1, 0);
+                },
+                collector.combiner(),
+                container -> {
+                    final StageEvent event = stage.begin();
+                    final long start = System.nanoTime();
+                    final R result = finisher.apply(container);
+                    stage.record(start, event, 0, 1);
+                    return result;
+                },
+                //包装后的finisher要被调用才能计数，所以去掉IDENTITY_FINISH
+                collector.characteristics().stream()
+                        .filter(characteristic -> characteristic != Collector.Characteristics.IDENTITY_FINISH)
+                        .toArray(Collector.Characteristics[]::new));
+    }
+
+    /**
+     * 每个阶段一行：进、出、选择率、累计耗时
+     */
+    public String summary() {
+        final StringBuilder builder = new StringBuilder(String.format("Pipeline %s%n", pipeline));
+        for (Stage stage : snapshot()) {
+            final long in = stage.in.sum();
+            final long out = stage.out.sum();
+            builder.append(String.format("  %-8s %-16s in=%-10d out=%-10d selectivity=%-8s time=%dus%n",
+                    stage.kind, stage.name, in, out,
+                    in == 0 || "sorted".equals(stage.kind) ? "-" : String.format("%.3f", (double) out / in),
+                    TimeUnit.NANOSECONDS.toMicros(stage.nanos.sum())));
+        }
+        return builder.toString();
+    }
+
+    public void printSummary() {
+        if (enabled) {
+            System.out.print(summary());
+        }
+    }
+
+    private List<Stage> snapshot() {
+        synchronized (stages) {
+            return new ArrayList<>(stages.values());
+        }
+    }
+
+    private Stage stage(final String name, final String kind) {
+        synchronized (stages) {
+            return stages.computeIfAbsent(name, key -> new Stage(pipeline, key, kind));
+        }
+    }
+
+    @Name("fp.StreamStage")
+    @Label("Stream Stage")
+    @Category({"Functional Programming", "Stream"})
+    @Threshold("1 ms")
+    static final class StageEvent extends Event {
+        @Label("Pipeline")
+        String pipeline;
+        @Label("Stage")
+        String stage;
+        @Label("Kind")
+        String kind;
+        @Label("In")
+        int in;
+        @Label("Out")
+        int out;
+    }
+
+    private static final class Stage {
+        private final String pipeline;
+        private final String name;
+        private final String kind;
+        private final LongAdder in = new LongAdder();
+        private final LongAdder out = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private Stage(final String thePipeline, final String theName, final String theKind) {
+            pipeline = thePipeline;
+            name = theName;
+            kind = theKind;
+        }
+
+        private StageEvent begin() {
+            final StageEvent event = new StageEvent();
+            event.begin();
+            return event;
+        }
+
+        private void record(final long start, final StageEvent event, final int inCount, final int outCount) {
+            nanos.add(System.nanoTime() - start);
+            event.end();
+            //没有在录制或者没超过阈值时shouldCommit()直接返回false
+            if (event.shouldCommit()) {
+                event.pipeline = pipeline;
+                event.stage = name;
+                event.kind = kind;
+                event.in = inCount;
+                event.out = outCount;
+                event.commit();
+            }
+            if (inCount != 0) {
+                in.add(inCount);
+            }
+            if (outCount != 0) {
+                out.add(outCount);
+            }
+        }
+    }
+}